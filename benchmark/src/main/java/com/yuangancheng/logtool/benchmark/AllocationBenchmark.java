@@ -0,0 +1,92 @@
+package com.yuangancheng.logtool.benchmark;
+
+import com.yuangancheng.logtool.benchmark.fixture.ConcatReqIdFixture;
+import com.yuangancheng.logtool.benchmark.fixture.ReqIdFixture;
+import com.yuangancheng.logtool.runtime.TraceContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bytes allocated per call by the code generated for a method with a request id, compared with the request id
+ * concatenated with the pattern by hand (ConcatReqIdFixture). Both log to the no-op appender, which never formats the
+ * message, so the difference is the String building garbage of the concatenation: the generated code passes a
+ * constant pattern and allocates no String per call.
+ * Run it by "java -cp target/benchmarks.jar com.yuangancheng.logtool.benchmark.AllocationBenchmark", which enables
+ * the gc profiler and prints the normalized allocation of every benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+
+    /* the label is prefixed by "·" or ":" depending on the version of JMH */
+    private static final String ALLOCATION_RESULT_SUFFIX = "gc.alloc.rate.norm";
+
+    private ReqIdFixture constantPatternFixture;
+    private ConcatReqIdFixture concatFixture;
+    /* non-final fields, so the arguments are not constant-folded */
+    private int intValue = 42;
+    private long longValue = 1_600_000_000_000L;
+    private String stringValue = "logtool";
+
+    @Setup
+    public void setup() {
+        TraceContext.bind("reqId", "0123456789abcdef");
+        constantPatternFixture = new ReqIdFixture();
+        concatFixture = new ConcatReqIdFixture();
+    }
+
+    @TearDown
+    public void tearDown() {
+        TraceContext.clear("reqId");
+    }
+
+    @Benchmark
+    public int constantPatternNoParams() {
+        return constantPatternFixture.noParams();
+    }
+
+    @Benchmark
+    public int concatNoParams() {
+        return concatFixture.noParams();
+    }
+
+    @Benchmark
+    public int constantPatternThreeParams() {
+        return constantPatternFixture.threeParams(intValue, stringValue, longValue);
+    }
+
+    @Benchmark
+    public int concatThreeParams() {
+        return concatFixture.threeParams(intValue, stringValue, longValue);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Collection<RunResult> runResults = new Runner(
+                new OptionsBuilder()
+                        .include(AllocationBenchmark.class.getSimpleName())
+                        .addProfiler(GCProfiler.class)
+                        .build()
+        ).run();
+        for(RunResult runResult : runResults) {
+            Result allocation = runResult.getSecondaryResults().entrySet().stream()
+                    .filter(entry -> entry.getKey().endsWith(ALLOCATION_RESULT_SUFFIX))
+                    .map(Map.Entry::getValue)
+                    .findFirst()
+                    .orElse(null);
+            System.out.printf("%s: %.1f bytes/op%n", runResult.getParams().getBenchmark(), allocation == null ? Double.NaN : allocation.getScore());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.yuangancheng.logtool.benchmark;
+
+import com.yuangancheng.logtool.benchmark.fixture.AppenderOrder;
+import com.yuangancheng.logtool.benchmark.fixture.ToStringOrder;
+import com.yuangancheng.logtool.runtime.TraceArgFormatter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rendering of a nested DTO argument by the appenders generated for @TraceAppender, compared with its toString().
+ * Run it by "java -jar target/benchmarks.jar AppenderBenchmark -prof gc".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AppenderBenchmark {
+
+    @Param({"1", "10"})
+    private int lineNum;
+
+    private AppenderOrder appenderOrder;
+    private ToStringOrder toStringOrder;
+
+    @Setup
+    public void setup() {
+        appenderOrder = AppenderOrder.create(lineNum);
+        toStringOrder = ToStringOrder.create(lineNum);
+    }
+
+    @Benchmark
+    public String appender() {
+        return TraceArgFormatter.format("{in: {order: {}}}", appenderOrder);
+    }
+
+    @Benchmark
+    public String toStringMethod() {
+        return TraceArgFormatter.format("{in: {order: {}}}", toStringOrder);
+    }
+}
@@ -0,0 +1,177 @@
+package com.yuangancheng.logtool.benchmark;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The compile-time cost of EnableTraceLogProcessor. It generates synthetic sources with N classes of M traced methods,
+ * whose bodies are loops/switches/try statements nested D levels deep with return statements at every level, and
+ * compiles them in-process through the JavaCompiler API with and without the processor, reporting the added wall time
+ * and the added allocated bytes of the compiling thread (median of the measured rounds).
+ * Run it with tools.jar on the classpath, so the processor and javac are loaded by the same class loader:
+ * java -cp target/benchmarks.jar:$JAVA_HOME/lib/tools.jar com.yuangancheng.logtool.benchmark.ProcessorBenchmark [classes] [methods] [depth] [rounds]
+ */
+public class ProcessorBenchmark {
+
+    private static final String PACKAGE_NAME = "com.yuangancheng.logtool.benchmark.synthetic";
+    private static final String PROCESSOR_NAME = "com.yuangancheng.logtool.processor.EnableTraceLogProcessor";
+
+    public static void main(String[] args) throws IOException {
+        int classNum = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int methodNum = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int roundNum = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null) {
+            throw new IllegalStateException("No system Java compiler, please run with a JDK");
+        }
+        List<JavaFileObject> sources = new ArrayList<>();
+        for(int i = 0; i < classNum; i++) {
+            sources.add(new SourceFile("Synthetic" + i, generateClass("Synthetic" + i, methodNum, depth)));
+        }
+        System.out.println("classes: " + classNum + ", traced methods per class: " + methodNum + ", nesting depth: " + depth + ", rounds: " + roundNum);
+
+        Path outputDir = Files.createTempDirectory("logtool-processor-benchmark");
+        try(StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            /* the first rounds warm up javac and the processor */
+            for(int i = 0; i < Math.max(1, roundNum / 2); i++) {
+                compile(compiler, fileManager, sources, outputDir, false);
+                compile(compiler, fileManager, sources, outputDir, true);
+            }
+            long[][] without = new long[roundNum][];
+            long[][] with = new long[roundNum][];
+            for(int i = 0; i < roundNum; i++) {
+                without[i] = compile(compiler, fileManager, sources, outputDir, false);
+                with[i] = compile(compiler, fileManager, sources, outputDir, true);
+            }
+            long withoutNanos = median(without, 0);
+            long withNanos = median(with, 0);
+            long withoutBytes = median(without, 1);
+            long withBytes = median(with, 1);
+            System.out.println("without processor: " + withoutNanos / 1_000_000 + "ms, " + withoutBytes / 1024 / 1024 + "MB allocated");
+            System.out.println("with processor:    " + withNanos / 1_000_000 + "ms, " + withBytes / 1024 / 1024 + "MB allocated");
+            System.out.println("added:             " + (withNanos - withoutNanos) / 1_000_000 + "ms, " + (withBytes - withoutBytes) / 1024 / 1024 + "MB allocated, "
+                    + (withNanos - withoutNanos) / ((long)classNum * methodNum) + "ns per traced method");
+        }finally{
+            try(Stream<Path> paths = Files.walk(outputDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Compile the sources in current thread
+     *
+     * @return the elapsed nanoseconds and the allocated bytes
+     */
+    private static long[] compile(JavaCompiler compiler, StandardJavaFileManager fileManager, List<JavaFileObject> sources, Path outputDir, boolean withProcessor) {
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-d", outputDir.toString(),
+                "-classpath", System.getProperty("java.class.path"),
+                "-nowarn"
+        ));
+        if(withProcessor) {
+            options.addAll(Arrays.asList("-processor", PROCESSOR_NAME));
+        }else{
+            options.add("-proc:none");
+        }
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        /* the processor reports every modified class as a note, which is dropped here */
+        boolean success = compiler.getTask(null, fileManager, diagnostic -> {
+        }, options, null, sources).call();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes;
+        if(!success) {
+            throw new IllegalStateException("Failed to compile the synthetic sources" + (withProcessor ? " with the processor" : ""));
+        }
+        return new long[]{elapsedNanos, allocatedBytes};
+    }
+
+    private static long median(long[][] results, int index) {
+        long[] values = new long[results.length];
+        for(int i = 0; i < results.length; i++) {
+            values[i] = results[i][index];
+        }
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private static String generateClass(String className, int methodNum, int depth) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("package ").append(PACKAGE_NAME).append(";\n\n")
+                .append("import com.yuangancheng.logtool.annotation.EnableTraceLog;\n")
+                .append("import com.yuangancheng.logtool.annotation.TraceLog;\n\n")
+                .append("@EnableTraceLog\n")
+                .append("public class ").append(className).append(" {\n");
+        for(int i = 0; i < methodNum; i++) {
+            builder.append("\n    @TraceLog\n")
+                    .append("    public int method").append(i).append("(int a, String s, long l) {\n")
+                    .append("        int r = s.length();\n");
+            generateNestedStatements(builder, depth, 0, "        ");
+            builder.append("        return r + (int)l;\n")
+                    .append("    }\n");
+        }
+        return builder.append("}\n").toString();
+    }
+
+    /**
+     * Generate a loop containing a switch whose first case is a try statement, and nest the next level in the try block
+     */
+    private static void generateNestedStatements(StringBuilder builder, int depth, int level, String indent) {
+        if(level == depth) {
+            builder.append(indent).append("r += a;\n")
+                    .append(indent).append("if(r > 1000) {\n")
+                    .append(indent).append("    return r;\n")
+                    .append(indent).append("}\n");
+            return;
+        }
+        String index = "i" + level;
+        builder.append(indent).append("for(int ").append(index).append(" = 0; ").append(index).append(" < a; ").append(index).append("++) {\n")
+                .append(indent).append("    switch(").append(index).append(" & 3) {\n")
+                .append(indent).append("        case 0:\n")
+                .append(indent).append("            try {\n");
+        generateNestedStatements(builder, depth, level + 1, indent + "                ");
+        builder.append(indent).append("            }catch(RuntimeException e").append(level).append(") {\n")
+                .append(indent).append("                return -").append(level + 1).append(";\n")
+                .append(indent).append("            }\n")
+                .append(indent).append("            break;\n")
+                .append(indent).append("        case 1:\n")
+                .append(indent).append("            return r + ").append(index).append(";\n")
+                .append(indent).append("        default:\n")
+                .append(indent).append("            r ^= ").append(index).append(";\n")
+                .append(indent).append("    }\n")
+                .append(indent).append("}\n");
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final String content;
+
+        SourceFile(String className, String content) {
+            super(URI.create("string:///" + PACKAGE_NAME.replace('.', '/') + "/" + className + Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.yuangancheng.logtool.benchmark;
+
+import com.yuangancheng.logtool.benchmark.fixture.*;
+import com.yuangancheng.logtool.runtime.TraceContext;
+import com.yuangancheng.logtool.runtime.TraceSwitchRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overhead per call of the code generated for @TraceLog in different configurations.
+ * The iterations and forks are fixed here, so the results of different releases are comparable. Run it by
+ * "java -jar target/benchmarks.jar", which also enables the gc profiler (allocation rate) and writes the results to
+ * "logtool-benchmark.json" unless the options are given in the command line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TraceLogBenchmark {
+
+    public enum Config {
+        /* no instrumentation */
+        UNINSTRUMENTED,
+        /* the class-level switch is off */
+        SWITCH_OFF,
+        /* INFO is disabled for the logger */
+        INFO_DISABLED,
+        /* INFO is enabled and logged to a no-op appender */
+        NOOP_APPENDER,
+        /* same as NOOP_APPENDER, with a request id bound to the thread */
+        REQ_ID,
+        /* INFO is enabled and the lines are written by FileTraceSink to a temporary file */
+        FILE_SINK
+    }
+
+    @Param
+    private Config config;
+
+    private TraceFixture fixture;
+    /* non-final fields, so the arguments are not constant-folded */
+    private int intValue = 42;
+    private long longValue = 1_600_000_000_000L;
+    private double doubleValue = 3.14;
+    private boolean booleanValue = true;
+    private char charValue = 'c';
+    private String stringValue = "logtool";
+    private Integer boxedValue = 7;
+
+    @Setup
+    public void setup() throws IOException {
+        switch(config) {
+            case UNINSTRUMENTED:
+                fixture = new PlainFixture();
+                break;
+            case SWITCH_OFF:
+                TraceSwitchRegistry.set("logtool.benchmark.switchOff", false);
+                fixture = new SwitchOffFixture();
+                break;
+            case INFO_DISABLED:
+                fixture = new InfoDisabledFixture();
+                break;
+            case NOOP_APPENDER:
+                fixture = new NoOpAppenderFixture();
+                break;
+            case REQ_ID:
+                TraceContext.bind("reqId", "0123456789abcdef");
+                fixture = new ReqIdFixture();
+                break;
+            case FILE_SINK:
+                Path path = Files.createTempFile("logtool-benchmark", ".log");
+                path.toFile().deleteOnExit();
+                System.setProperty("logtool.file.path", path.toString());
+                fixture = new FileSinkFixture();
+                break;
+            default:
+                throw new IllegalStateException("Unknown config: " + config);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        TraceContext.clear("reqId");
+    }
+
+    @Benchmark
+    public int noParams() {
+        return fixture.noParams();
+    }
+
+    @Benchmark
+    public int threeParams() {
+        return fixture.threeParams(intValue, stringValue, longValue);
+    }
+
+    @Benchmark
+    public int tenParams() {
+        return fixture.tenParams(intValue, longValue, doubleValue, booleanValue, charValue, stringValue, intValue, longValue, stringValue, boxedValue);
+    }
+
+    @Benchmark
+    public int manyReturns() {
+        return fixture.manyReturns(intValue++);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        OptionsBuilder optionsBuilder = new OptionsBuilder();
+        optionsBuilder.parent(commandLineOptions);
+        if(commandLineOptions.getIncludes().isEmpty()) {
+            optionsBuilder.include(TraceLogBenchmark.class.getSimpleName());
+        }
+        if(commandLineOptions.getProfilers().isEmpty()) {
+            optionsBuilder.addProfiler(GCProfiler.class);
+        }
+        if(!commandLineOptions.getResultFormat().hasValue()) {
+            optionsBuilder.resultFormat(ResultFormatType.JSON);
+            optionsBuilder.result("logtool-benchmark.json");
+        }
+        new Runner(optionsBuilder.build()).run();
+    }
+}
@@ -0,0 +1,61 @@
+package com.yuangancheng.logtool.benchmark.fixture;
+
+import com.yuangancheng.logtool.annotation.TraceAppender;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A typical nested DTO rendered by its generated appenders
+ */
+@TraceAppender
+public class AppenderOrder {
+
+    private long id;
+    private String status;
+    private Customer customer;
+    private List<Line> lines;
+
+    public AppenderOrder(long id, String status, Customer customer, List<Line> lines) {
+        this.id = id;
+        this.status = status;
+        this.customer = customer;
+        this.lines = lines;
+    }
+
+    public static AppenderOrder create(int lineNum) {
+        List<Line> lines = new ArrayList<>();
+        for(int i = 0; i < lineNum; i++) {
+            lines.add(new Line("SKU-" + i, i + 1, 9.99 * (i + 1)));
+        }
+        return new AppenderOrder(1_000_001L, "PAID", new Customer(42, "Alice", "alice@example.com"), lines);
+    }
+
+    @TraceAppender
+    public static class Customer {
+
+        private int id;
+        private String name;
+        private String email;
+
+        public Customer(int id, String name, String email) {
+            this.id = id;
+            this.name = name;
+            this.email = email;
+        }
+    }
+
+    @TraceAppender
+    public static class Line {
+
+        private String sku;
+        private int quantity;
+        private double price;
+
+        public Line(String sku, int quantity, double price) {
+            this.sku = sku;
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+}
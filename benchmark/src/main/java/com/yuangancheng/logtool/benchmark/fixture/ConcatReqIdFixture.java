@@ -0,0 +1,36 @@
+package com.yuangancheng.logtool.benchmark.fixture;
+
+import com.yuangancheng.logtool.runtime.TraceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Not instrumented, written by hand as the code generated for ReqIdFixture before the request id was passed as an
+ * argument: the request id is concatenated with the pattern on every entry and every return
+ */
+public class ConcatReqIdFixture {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcatReqIdFixture.class);
+
+    public int noParams() {
+        if(log.isInfoEnabled()) {
+            log.info(TraceContext.getReqId("reqId") + ":noParams{in: {}}");
+        }
+        int result = 1;
+        if(log.isInfoEnabled()) {
+            log.info(TraceContext.getReqId("reqId") + ":noParams{out: {result: {}}}", result);
+        }
+        return result;
+    }
+
+    public int threeParams(int id, String name, long timestamp) {
+        if(log.isInfoEnabled()) {
+            log.info(TraceContext.getReqId("reqId") + ":threeParams{in: {id: {}, name: {}, timestamp: {}}}", id, name, timestamp);
+        }
+        int result = id + name.length() + (int)timestamp;
+        if(log.isInfoEnabled()) {
+            log.info(TraceContext.getReqId("reqId") + ":threeParams{out: {result: {}}}", result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+package com.yuangancheng.logtool.benchmark.fixture;
+
+import com.yuangancheng.logtool.annotation.EnableTraceLog;
+import com.yuangancheng.logtool.annotation.TraceLog;
+
+/**
+ * Instrumented, but INFO is disabled for its logger (see logback.xml)
+ */
+@EnableTraceLog
+public class InfoDisabledFixture implements TraceFixture {
+
+    @Override
+    @TraceLog
+    public int noParams() {
+        return 1;
+    }
+
+    @Override
+    @TraceLog
+    public int threeParams(int id, String name, long timestamp) {
+        return id + name.length() + (int)timestamp;
+    }
+
+    @Override
+    @TraceLog
+    public int tenParams(int p0, long p1, double p2, boolean p3, char p4, String p5, int p6, long p7, String p8, Integer p9) {
+        return p0 + (int)p1 + (int)p2 + (p3 ? 1 : 0) + p4 + p5.length() + p6 + (int)p7 + p8.length() + p9;
+    }
+
+    @Override
+    @TraceLog
+    public int manyReturns(int value) {
+        switch(value & 7) {
+            case 0:
+                return value;
+            case 1:
+                return value + 1;
+            case 2:
+                return value * 2;
+            case 3:
+                return value - 3;
+            case 4:
+                return value >> 1;
+            case 5:
+                return value ^ 5;
+            case 6:
+                return -value;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.yuangancheng.logtool.benchmark.fixture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Same as AppenderOrder, with the toString() methods written as Lombok @Data generates them
+ */
+public class ToStringOrder {
+
+    private long id;
+    private String status;
+    private Customer customer;
+    private List<Line> lines;
+
+    public ToStringOrder(long id, String status, Customer customer, List<Line> lines) {
+        this.id = id;
+        this.status = status;
+        this.customer = customer;
+        this.lines = lines;
+    }
+
+    public static ToStringOrder create(int lineNum) {
+        List<Line> lines = new ArrayList<>();
+        for(int i = 0; i < lineNum; i++) {
+            lines.add(new Line("SKU-" + i, i + 1, 9.99 * (i + 1)));
+        }
+        return new ToStringOrder(1_000_001L, "PAID", new Customer(42, "Alice", "alice@example.com"), lines);
+    }
+
+    @Override
+    public String toString() {
+        return "ToStringOrder(id=" + this.id + ", status=" + this.status + ", customer=" + this.customer + ", lines=" + this.lines + ")";
+    }
+
+    public static class Customer {
+
+        private int id;
+        private String name;
+        private String email;
+
+        public Customer(int id, String name, String email) {
+            this.id = id;
+            this.name = name;
+            this.email = email;
+        }
+
+        @Override
+        public String toString() {
+            return "ToStringOrder.Customer(id=" + this.id + ", name=" + this.name + ", email=" + this.email + ")";
+        }
+    }
+
+    public static class Line {
+
+        private String sku;
+        private int quantity;
+        private double price;
+
+        public Line(String sku, int quantity, double price) {
+            this.sku = sku;
+            this.quantity = quantity;
+            this.price = price;
+        }
+
+        @Override
+        public String toString() {
+            return "ToStringOrder.Line(sku=" + this.sku + ", quantity=" + this.quantity + ", price=" + this.price + ")";
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.yuangancheng.logtool.benchmark.fixture;
+
+/**
+ * The methods measured by the benchmark, every configuration implements them with the same bodies
+ */
+public interface TraceFixture {
+
+    int noParams();
+
+    int threeParams(int id, String name, long timestamp);
+
+    int tenParams(int p0, long p1, double p2, boolean p3, char p4, String p5, int p6, long p7, String p8, Integer p9);
+
+    int manyReturns(int value);
+}
@@ -1,5 +1,11 @@
 package com.yuangancheng.logtool.annotation;
 
+import com.yuangancheng.logtool.enums.InstrumentStrategyEnum;
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+import com.yuangancheng.logtool.enums.OverflowPolicyEnum;
+import com.yuangancheng.logtool.enums.TraceFormatEnum;
+import com.yuangancheng.logtool.enums.TraceSinkEnum;
+
 import java.lang.annotation.*;
 
 /**
@@ -13,4 +19,16 @@ public @interface EnableTraceLog {
     String reqIdName() default "";
     boolean enableClassLevelSwitch() default false;
     String switchKey() default "";
+    LogLevelEnum level() default LogLevelEnum.INFO;
+    boolean async() default false;
+    OverflowPolicyEnum overflowPolicy() default OverflowPolicyEnum.DROP;
+    boolean snapshotArgs() default false;
+    TraceSinkEnum sink() default TraceSinkEnum.SLF4J;
+    /* the format of the lines of the SLF4J sink and the file sink */
+    TraceFormatEnum format() default TraceFormatEnum.TEXT;
+    /* the max number of traced invocations per second of every traced method, non-positive means unlimited */
+    int maxPerSecond() default 0;
+    /* record the latency of every invocation of every traced method into a histogram */
+    boolean latency() default false;
+    InstrumentStrategyEnum strategy() default InstrumentStrategyEnum.PER_RETURN;
 }
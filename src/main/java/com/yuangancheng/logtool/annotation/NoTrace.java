@@ -0,0 +1,13 @@
+package com.yuangancheng.logtool.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * The parameter of a traced method (@TraceLog) which is neither captured nor logged, e.g. a large payload or a
+ * HttpServletResponse, or the field which is not appended by the generated appender of a class (@TraceAppender)
+ */
+@Target({ElementType.PARAMETER, ElementType.FIELD})
+@Retention(RetentionPolicy.SOURCE)
+@Documented
+public @interface NoTrace {
+}
@@ -0,0 +1,14 @@
+package com.yuangancheng.logtool.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * Generate a reflection-free appender of the instance fields for a class (e.g. a DTO) compiled together with the
+ * traced classes, which is used instead of toString() when the class is rendered as an argument or a result of a
+ * traced method. The fields annotated with @NoTrace are skipped, and the fields of the superclass are not appended.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.SOURCE)
+@Documented
+public @interface TraceAppender {
+}
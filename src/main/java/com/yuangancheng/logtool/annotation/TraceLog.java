@@ -1,5 +1,8 @@
 package com.yuangancheng.logtool.annotation;
 
+import com.yuangancheng.logtool.enums.InstrumentStrategyEnum;
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+
 import java.lang.annotation.*;
 
 @Target({ElementType.METHOD})
@@ -8,4 +11,20 @@ import java.lang.annotation.*;
 public @interface TraceLog {
     boolean enableMethodLevelSwitch() default false;
     String switchKey() default "";
+    /* the level of the class (@EnableTraceLog) is used when this one is not specified */
+    LogLevelEnum level() default LogLevelEnum.INFO;
+    /* the rate of invocations to be traced, between 0 and 1 (literal only) */
+    double sampleRate() default 1;
+    /* the max number of traced invocations per second, non-positive means unlimited, the one of the class (@EnableTraceLog) is used when this one is not specified */
+    int maxPerSecond() default 0;
+    /* record the latency of every invocation into a histogram, the one of the class (@EnableTraceLog) is used when this one is not specified */
+    boolean latency() default false;
+    /* the strategy of the class (@EnableTraceLog) is used when this one is not specified */
+    InstrumentStrategyEnum strategy() default InstrumentStrategyEnum.PER_RETURN;
+    /* the names of the only parameters to be logged, empty means all (literals only) */
+    String[] params() default {};
+    /* the names of the parameters not to be logged, same as @NoTrace on them (literals only) */
+    String[] exclude() default {};
+    /* log the result of method or not */
+    boolean logResult() default true;
 }
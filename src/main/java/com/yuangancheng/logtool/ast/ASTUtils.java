@@ -3,8 +3,10 @@ package com.yuangancheng.logtool.ast;
 import com.sun.tools.javac.code.*;
 import com.sun.tools.javac.jvm.ClassReader;
 import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeCopier;
 import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Name;
 import com.sun.tools.javac.util.Names;
 import com.sun.tools.javac.util.Pair;
@@ -142,27 +144,51 @@ public class ASTUtils {
         if(defaultValue != null && !defaultValue.equals("")) {
             defaultValueExpression = treeMaker.Ident(names.fromString(defaultValue));
         }
-        List<JCTree.JCVariableDecl> params = List.nil();
+        ListBuffer<JCTree.JCVariableDecl> params = new ListBuffer<>();
         for(Map.Entry<String, String> entry : paramNameTypeMap.entrySet()) {
             JCTree.JCVariableDecl jcVariableDecl = createVarDecl(Flags.PARAMETER, List.nil(), entry.getKey(), entry.getValue(), null);
-            params = params.append(jcVariableDecl);
+            params.append(jcVariableDecl);
         }
-        List<JCTree.JCExpression> exceptionThrown = List.nil();
+        ListBuffer<JCTree.JCExpression> exceptionThrown = new ListBuffer<>();
         for(String string : exceptionThrownNameArrayList) {
-            exceptionThrown = exceptionThrown.append(treeMaker.Ident(names.fromString(string)));
+            exceptionThrown.append(treeMaker.Ident(names.fromString(string)));
         }
         return treeMaker.MethodDef(modifiers,
                 methodName,
                 resTypeExpression,
                 typeParams,
                 recvParam,
-                params,
-                exceptionThrown,
+                params.toList(),
+                exceptionThrown.toList(),
                 methodBody,
                 defaultValueExpression
         );
     }
 
+    /**
+     * Create a method declaration with the same type parameters, return type, parameters and thrown exceptions as an
+     * existing one, the trees are deeply copied
+     *
+     * @param methodDecl the existing method declaration
+     * @param flags
+     * @param name the name of method
+     * @param methodBody the code block of method
+     * @return an instance of JCTree.JCMethodDecl
+     */
+    public JCTree.JCMethodDecl copyMethodDecl(JCTree.JCMethodDecl methodDecl, long flags, String name, JCTree.JCBlock methodBody) {
+        TreeCopier<Void> treeCopier = new TreeCopier<>(treeMaker);
+        return treeMaker.MethodDef(treeMaker.Modifiers(flags),
+                names.fromString(name),
+                treeCopier.copy(methodDecl.restype),
+                treeCopier.copy(methodDecl.typarams),
+                treeCopier.copy(methodDecl.recvparam),
+                treeCopier.copy(methodDecl.params),
+                treeCopier.copy(methodDecl.thrown),
+                methodBody,
+                null
+        );
+    }
+
     public JCTree.JCWhileLoop createWhileLoopStatement(JCTree.JCExpression cond, JCTree.JCStatement body) {
         return treeMaker.WhileLoop(cond, body);
     }
@@ -285,17 +311,28 @@ public class ASTUtils {
         return treeMaker.NewArray(arrTypeExpression, List.nil(), elems);
     }
 
+    /**
+     * Create a one-dimensional array with arbitrary initial expressions. e.g. new Object[]{a, b.c(), 1}
+     *
+     * @param name array element type name
+     * @param elems the initial values of array
+     * @return an instance of JCTree.JCNewArray
+     */
+    public JCTree.JCExpression createNewArrayExpression(String name, List<JCTree.JCExpression> elems) {
+        return treeMaker.NewArray(createCompleteFieldAccess(name), List.nil(), elems);
+    }
+
     private List<JCTree.JCExpression> createInternalNewArrayExpressionRecursively(ArrayList<Object> elementType, ArrayList<Object> elementValue) {
-        List<JCTree.JCExpression> elems = List.nil();
+        ListBuffer<JCTree.JCExpression> elems = new ListBuffer<>();
         for(int i = 0; i < elementType.size(); i++) {
             if(elementValue.get(i) instanceof ArrayList) {
                 List<JCTree.JCExpression> nextElems = createInternalNewArrayExpressionRecursively((ArrayList<Object>)elementType.get(i), (ArrayList<Object>)elementValue.get(i));
-                elems = elems.append(treeMaker.NewArray(null, List.nil(), nextElems));
+                elems.append(treeMaker.NewArray(null, List.nil(), nextElems));
             }else{
-                elems = elems.append(elementType.get(i) == JCTree.JCIdent.class ? createIdent((String)elementValue.get(i)) : createLiteral(elementValue.get(i)));
+                elems.append(elementType.get(i) == JCTree.JCIdent.class ? createIdent((String)elementValue.get(i)) : createLiteral(elementValue.get(i)));
             }
         }
-        return elems;
+        return elems.toList();
     }
 
     public JCTree.JCVariableDecl createNewAssignStatement(String assignName,
@@ -314,11 +351,12 @@ public class ASTUtils {
 
     @SafeVarargs
     public final JCTree.JCBlock createBlock(List<JCTree.JCStatement> statementsList, List<JCTree.JCStatement>... statementsLists) {
-        JCTree.JCBlock result = treeMaker.Block(0, statementsList);
+        ListBuffer<JCTree.JCStatement> statements = new ListBuffer<>();
+        statements.appendList(statementsList);
         for (List<JCTree.JCStatement> list : statementsLists) {
-            result.stats = result.stats.appendList(list);
+            statements.appendList(list);
         }
-        return result;
+        return treeMaker.Block(0, statements.toList());
     }
 
     public JCTree.JCStatement createMethodInvocationExpressionStatement(String completeFieldName, ArrayList<JCTree.JCExpression> paramsValueList) {
@@ -336,19 +374,13 @@ public class ASTUtils {
         if(completeFieldName == null || completeFieldName.equals("")) {
             return null;
         }
-        List<JCTree.JCExpression> args = List.nil();
-        for(JCTree.JCExpression jcExpression : paramsValueList) {
-            args = args.append(jcExpression);
-        }
+        List<JCTree.JCExpression> args = List.from(paramsValueList);
         JCTree.JCExpression completeFieldAccess = createCompleteFieldAccess(completeFieldName);
         return treeMaker.Apply(List.nil(), completeFieldAccess, args);
     }
 
     public JCTree.JCExpression createMethodInvocation1(JCTree.JCExpression preExpression, String nextField, ArrayList<JCTree.JCExpression> paramsValueList) {
-        List<JCTree.JCExpression> args = List.nil();
-        for(JCTree.JCExpression jcExpression : paramsValueList) {
-            args = args.append(jcExpression);
-        }
+        List<JCTree.JCExpression> args = List.from(paramsValueList);
         return treeMaker.Apply(List.nil(), createFieldAccess(preExpression, nextField), args);
     }
 
@@ -360,6 +392,10 @@ public class ASTUtils {
         return treeMaker.Literal(value);
     }
 
+    public JCTree.JCExpression createNullLiteral() {
+        return treeMaker.Literal(TypeTag.BOT, null);
+    }
+
     /**
      * Create array access iteratively
      *
@@ -454,7 +490,7 @@ public class ASTUtils {
      * @return an instance of Attribute.Compound
      */
     private Attribute createCompound(String qualifiedName, Map<String, Object> keyValueMap, Map<String, String> keyQualifiedNameMap) {
-        List<Pair<Symbol.MethodSymbol, Attribute>> values = List.nil();
+        ListBuffer<Pair<Symbol.MethodSymbol, Attribute>> values = new ListBuffer<>();
         Type classType = getClassType(qualifiedName);
         for(Map.Entry<String, Object> entry : keyValueMap.entrySet()) {
             Symbol.MethodSymbol first = createMethodSymbol(
@@ -468,9 +504,9 @@ public class ASTUtils {
             Attribute second = createConstant(getClassType(keyQualifiedNameMap.get(entry.getKey())),
                     keyValueMap.get(entry.getKey()));
             Pair<Symbol.MethodSymbol, Attribute> pair = new Pair<>(first, second);
-            values = values.append(pair);
+            values.append(pair);
         }
-        return new Attribute.Compound(classType, values);
+        return new Attribute.Compound(classType, values.toList());
     }
 
     public Attribute.Constant createConstant(Type type, Object value) {
@@ -1,18 +1,27 @@
 package com.yuangancheng.logtool.ast;
 
 import com.sun.source.tree.LineMap;
-import com.sun.source.tree.Tree;
 import com.sun.tools.javac.code.*;
 import com.sun.tools.javac.jvm.ClassReader;
 import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.TreeInfo;
 import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.TreeScanner;
 import com.sun.tools.javac.tree.TreeTranslator;
 import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Names;
 import com.yuangancheng.logtool.enums.ConstantsEnum;
+import com.yuangancheng.logtool.enums.InstrumentStrategyEnum;
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+import com.yuangancheng.logtool.enums.OverflowPolicyEnum;
+import com.yuangancheng.logtool.enums.TraceFormatEnum;
+import com.yuangancheng.logtool.enums.TraceModeEnum;
+import com.yuangancheng.logtool.enums.TracePhaseEnum;
+import com.yuangancheng.logtool.enums.TraceSinkEnum;
 
 import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
 import javax.tools.Diagnostic;
 import java.util.*;
@@ -26,39 +35,58 @@ public class EnableTraceLogTranslator extends TreeTranslator {
 
     private final Messager messager;
     private final TreeMaker treeMaker;
+    private final Symtab symtab;
     private final Map<String, Object> enableTraceLogMembersMap;
-    private final ArrayList<String> methodListWithAnnotation;
+    private final Set<Element> methodSetWithAnnotation;
     private JCTree.JCClassDecl classDecl;
-    private final ArrayList<Integer> endPosition;
     private final ASTUtils astUtils;
     private String classLevelSwitchKey;
-    private final Map<String, String> methodLevelSwitchKeyMap;
-    private final Set<String> enableMethodLevelSwitchSet;
+    private final Map<Symbol.MethodSymbol, String> methodLevelSwitchKeyMap;
+    private final Set<Symbol.MethodSymbol> enableMethodLevelSwitchSet;
+    private final Map<Symbol.MethodSymbol, LogLevelEnum> methodLevelMap;
+    private final Map<Symbol.MethodSymbol, Integer> methodOrdinalMap;
+    private final Map<Symbol.MethodSymbol, String> methodSamplerMap;
+    private final Map<Symbol.MethodSymbol, String> methodRateLimiterMap;
+    private final Map<Symbol.MethodSymbol, String> methodHistogramMap;
+    private final Map<Symbol.MethodSymbol, List<JCTree.JCVariableDecl>> methodTracedParamsMap;
+    private final Set<Symbol.MethodSymbol> methodWithoutResultSet;
     private final LineMap lineMap;
-    private final String prefixNum;
+    private final String classNamespace;
     private final Set<String> newVariableNameSet;
+    private final Map<String, Integer> namespaceOrdinalMap;
+    private Set<String> existingNameSet;
     private String loggerName;
     private String curReqIdName;
+    private String curTracedName;
+    private String curLineName;
+    private String methodIdBaseName;
 
-    public EnableTraceLogTranslator(Messager messager, TreeMaker treeMaker, Names names, Symtab symtab, ClassReader classReader, Map<String, Object> enableTraceLogMembersMap, ArrayList<String> methodListWithAnnotation, LineMap lineMap, String prefixNum) {
+    public EnableTraceLogTranslator(Messager messager, TreeMaker treeMaker, Names names, Symtab symtab, ClassReader classReader, Map<String, Object> enableTraceLogMembersMap, Set<Element> methodSetWithAnnotation, LineMap lineMap, String classNamespace) {
         this.messager = messager;
         this.treeMaker = treeMaker;
+        this.symtab = symtab;
         this.enableTraceLogMembersMap = enableTraceLogMembersMap;
-        this.methodListWithAnnotation = methodListWithAnnotation;
+        this.methodSetWithAnnotation = methodSetWithAnnotation;
         this.lineMap = lineMap;
-        this.prefixNum = prefixNum;
+        this.classNamespace = classNamespace;
         this.classDecl = null;
-        endPosition = new ArrayList<>();
         astUtils = new ASTUtils(names, symtab, classReader, treeMaker);
         newVariableNameSet = new HashSet<>();
+        namespaceOrdinalMap = new HashMap<>();
         methodLevelSwitchKeyMap = new HashMap<>();
         enableMethodLevelSwitchSet = new HashSet<>();
+        methodLevelMap = new HashMap<>();
+        methodOrdinalMap = new HashMap<>();
+        methodSamplerMap = new HashMap<>();
+        methodRateLimiterMap = new HashMap<>();
+        methodHistogramMap = new HashMap<>();
+        methodTracedParamsMap = new HashMap<>();
+        methodWithoutResultSet = new HashSet<>();
     }
 
     @Override
     public void visitClassDef(JCTree.JCClassDecl jcClassDecl) {
         if(classDecl != null) {
-            endPosition.add(getClassEndPosition(jcClassDecl));
             super.visitClassDef(jcClassDecl);
             return;
         }
@@ -70,20 +98,15 @@ public class EnableTraceLogTranslator extends TreeTranslator {
          */
         this.treeMaker.pos = jcClassDecl.pos;
 
-        boolean isWarningPrinted = false;
-
         //Check if enable the open-close switch
-        if((Boolean)enableTraceLogMembersMap.get(ConstantsEnum.ENABLE_CLASS_LEVEL_SWITCH.getValue())) {
+        boolean isSwitchMode = enableTraceLogMembersMap.get(ConstantsEnum.OPTION_MODE.getValue()) == TraceModeEnum.SWITCH;
+        if(isSwitchMode && (Boolean)enableTraceLogMembersMap.get(ConstantsEnum.ENABLE_CLASS_LEVEL_SWITCH.getValue())) {
             if(enableTraceLogMembersMap.get(ConstantsEnum.SWITCH_KEY.getValue()).equals("")) {
                 messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + jcClassDecl.sym.flatname.toString() + "@EnableTraceLog: Please specify a switch key when enable class-switch-key.");
             }
-            if(classDecl.sym.owner instanceof Symbol.ClassSymbol) {
-                messager.printMessage(Diagnostic.Kind.WARNING, "Warning: " + jcClassDecl.sym.flatname.toString() + ": If you want to make switch-key truly effective in Spring application, please use its instance in IOC container instead of using keyword 'new'.");
-                isWarningPrinted = true;
-            }
             JCTree.JCVariableDecl classLevelSwitchKeyDecl = generateSwitchKey(
+                    jcClassDecl,
                     (String)enableTraceLogMembersMap.get(ConstantsEnum.SWITCH_KEY.getValue()),
-                    "int",
                     ConstantsEnum.VAR_CLASS_SWITCH_KEY
             );
             classLevelSwitchKey = classLevelSwitchKeyDecl.getName().toString();
@@ -94,6 +117,7 @@ public class EnableTraceLogTranslator extends TreeTranslator {
             {
                 addAll(jcClassDecl.getMembers().stream()
                         .filter(jcTree -> jcTree instanceof JCTree.JCMethodDecl)
+                        .filter(jcTree -> methodSetWithAnnotation.contains(((JCTree.JCMethodDecl)jcTree).sym))
                         .filter(jcTree -> {
                             JCTree.JCMethodDecl methodDecl = (JCTree.JCMethodDecl)jcTree;
                             for(JCTree.JCAnnotation jcAnnotation : methodDecl.getModifiers().getAnnotations()) {
@@ -107,6 +131,7 @@ public class EnableTraceLogTranslator extends TreeTranslator {
                 );
             }
         };
+        ListBuffer<JCTree> innerMethodDecls = new ListBuffer<>();
         for(JCTree.JCMethodDecl methodDecl : methodDecls) {
             List<JCTree.JCAnnotation> annotationList = methodDecl.getModifiers().getAnnotations();
             JCTree.JCAnnotation traceLogAnnotation = null;
@@ -117,11 +142,47 @@ public class EnableTraceLogTranslator extends TreeTranslator {
                 }
             }
             List<JCTree.JCExpression> annotationArgList = traceLogAnnotation.getArguments();
+
+            /* the method-level log level overrides the class-level one only if it is specified explicitly */
+            methodLevelMap.put(methodDecl.sym, (LogLevelEnum)enableTraceLogMembersMap.get(ConstantsEnum.LEVEL.getValue()));
+            for(JCTree.JCExpression arg : annotationArgList) {
+                JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
+                if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals(ConstantsEnum.LEVEL.getValue())) {
+                    methodLevelMap.put(methodDecl.sym, LogLevelEnum.valueOf(TreeInfo.name(assign.getExpression()).toString()));
+                    break;
+                }
+            }
+
+            /* move the original body into an inner method if the method-level or the class-level strategy is SINGLE_EXIT */
+            InstrumentStrategyEnum strategy = (InstrumentStrategyEnum)enableTraceLogMembersMap.get(ConstantsEnum.STRATEGY.getValue());
+            for(JCTree.JCExpression arg : annotationArgList) {
+                JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
+                if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals(ConstantsEnum.STRATEGY.getValue())) {
+                    strategy = InstrumentStrategyEnum.valueOf(TreeInfo.name(assign.getExpression()).toString());
+                    break;
+                }
+            }
+            if(strategy == InstrumentStrategyEnum.SINGLE_EXIT && methodDecl.body != null && !TreeInfo.isConstructor(methodDecl)) {
+                innerMethodDecls.append(generateInnerMethod(methodDecl));
+            }
+
+            /* the parameters and the result to be logged are selected at compile time, the others are not captured at all */
+            methodTracedParamsMap.put(methodDecl.sym, selectTracedParams(methodDecl, annotationArgList));
+            for(JCTree.JCExpression arg : annotationArgList) {
+                JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
+                if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals(ConstantsEnum.LOG_RESULT.getValue())) {
+                    if(((JCTree.JCLiteral)assign.getExpression()).getValue().equals(false)) {
+                        methodWithoutResultSet.add(methodDecl.sym);
+                    }
+                    break;
+                }
+            }
+
             for(JCTree.JCExpression arg : annotationArgList) {
                 JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
                 if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals(ConstantsEnum.ENABLE_METHOD_LEVEL_SWITCH.getValue())) {
                     if(((JCTree.JCLiteral)assign.getExpression()).getValue().equals(true)) {
-                        enableMethodLevelSwitchSet.add(methodDecl.getName().toString());
+                        enableMethodLevelSwitchSet.add(methodDecl.sym);
                         break;
                     }
                 }
@@ -130,7 +191,7 @@ public class EnableTraceLogTranslator extends TreeTranslator {
             /* generate method-level-switch-keys for all method annotated with @TraceLog */
             String methodSwitchKey = null;
             JCTree.JCVariableDecl methodSwitchVariableDecl;
-            if(enableMethodLevelSwitchSet.contains(methodDecl.getName().toString())) {
+            if(isSwitchMode && enableMethodLevelSwitchSet.contains(methodDecl.sym)) {
                 for(JCTree.JCExpression arg : annotationArgList) {
                     JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
                     if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals("switchKey")) {
@@ -141,20 +202,87 @@ public class EnableTraceLogTranslator extends TreeTranslator {
                         break;
                     }
                 }
-                if(!isWarningPrinted && classDecl.sym.owner instanceof Symbol.ClassSymbol) {
-                    messager.printMessage(Diagnostic.Kind.WARNING, "Warning: " + jcClassDecl.sym.flatname.toString() + ": If you want to make switch-key truly effective in Spring application, please use its instance in IOC container instead of using keyword 'new'.");
-                    isWarningPrinted = true;
-                }
                 methodSwitchVariableDecl = generateSwitchKey(
+                        jcClassDecl,
                         methodSwitchKey,
-                        "int",
                         ConstantsEnum.VAR_METHOD_SWITCH_KEY
                 );
                 classDecl.defs = classDecl.defs.prepend(methodSwitchVariableDecl);
-                methodLevelSwitchKeyMap.put(methodDecl.getName().toString(), methodSwitchVariableDecl.getName().toString());
+                methodLevelSwitchKeyMap.put(methodDecl.sym, methodSwitchVariableDecl.getName().toString());
+            }
+
+            /* the key to override the sample rate and the rate limit of the method at runtime */
+            String methodKey = getMethodKey(jcClassDecl, methodDecl, methodDecls);
+            String methodTraceKey = methodSwitchKey != null ? methodSwitchKey : methodKey;
+
+            /*
+              generate a sampler for every method, so the sample rate of a method left at the default rate (1) can
+              still be turned down at runtime by its key, a rate of 1 is checked by a single volatile read
+             */
+            double sampleRate = 1;
+            for(JCTree.JCExpression arg : annotationArgList) {
+                JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
+                if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals(ConstantsEnum.SAMPLE_RATE.getValue())) {
+                    if(!(assign.getExpression() instanceof JCTree.JCLiteral)
+                            || ((Number)((JCTree.JCLiteral)assign.getExpression()).getValue()).doubleValue() > 1
+                            || ((Number)((JCTree.JCLiteral)assign.getExpression()).getValue()).doubleValue() < 0) {
+                        messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + jcClassDecl.sym.flatname.toString() + "." + methodDecl.getName().toString() + "@TraceLog: The sample rate must be a literal between 0 and 1.");
+                        break;
+                    }
+                    sampleRate = ((Number)((JCTree.JCLiteral)assign.getExpression()).getValue()).doubleValue();
+                    break;
+                }
+            }
+            JCTree.JCVariableDecl samplerDecl = generateSampler(jcClassDecl, methodTraceKey, sampleRate);
+            jcClassDecl.defs = jcClassDecl.defs.prepend(samplerDecl);
+            methodSamplerMap.put(methodDecl.sym, samplerDecl.getName().toString());
+
+            /* generate a rate limiter for the method if the method-level or the class-level limit is specified */
+            int maxPerSecond = (Integer)enableTraceLogMembersMap.get(ConstantsEnum.MAX_PER_SECOND.getValue());
+            for(JCTree.JCExpression arg : annotationArgList) {
+                JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
+                if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals(ConstantsEnum.MAX_PER_SECOND.getValue())) {
+                    if(!(assign.getExpression() instanceof JCTree.JCLiteral)) {
+                        messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + jcClassDecl.sym.flatname.toString() + "." + methodDecl.getName().toString() + "@TraceLog: The max number of traced invocations per second must be a literal.");
+                        break;
+                    }
+                    maxPerSecond = ((Number)((JCTree.JCLiteral)assign.getExpression()).getValue()).intValue();
+                    break;
+                }
+            }
+            if(maxPerSecond > 0) {
+                JCTree.JCVariableDecl rateLimiterDecl = generateRateLimiter(jcClassDecl, methodTraceKey, maxPerSecond);
+                jcClassDecl.defs = jcClassDecl.defs.prepend(rateLimiterDecl);
+                methodRateLimiterMap.put(methodDecl.sym, rateLimiterDecl.getName().toString());
+            }
+
+            /* generate a latency histogram for the method if the method-level or the class-level latency is enabled */
+            boolean latency = (Boolean)enableTraceLogMembersMap.get(ConstantsEnum.LATENCY.getValue());
+            for(JCTree.JCExpression arg : annotationArgList) {
+                JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
+                if(((JCTree.JCIdent)assign.getVariable()).getName().toString().equals(ConstantsEnum.LATENCY.getValue())) {
+                    latency = ((JCTree.JCLiteral)assign.getExpression()).getValue().equals(true);
+                    break;
+                }
+            }
+            if(latency) {
+                JCTree.JCVariableDecl histogramDecl = generateLatencyHistogram(jcClassDecl, methodKey);
+                jcClassDecl.defs = jcClassDecl.defs.prepend(histogramDecl);
+                methodHistogramMap.put(methodDecl.sym, histogramDecl.getName().toString());
             }
         }
 
+        jcClassDecl.defs = jcClassDecl.defs.appendList(innerMethodDecls.toList());
+
+        if(enableTraceLogMembersMap.get(ConstantsEnum.SINK.getValue()) == TraceSinkEnum.BINARY && isJsonFormat()) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + jcClassDecl.sym.flatname.toString() + "@EnableTraceLog: The binary sink doesn't support the JSON format, please decode its segments instead.");
+        }
+        if(enableTraceLogMembersMap.get(ConstantsEnum.SINK.getValue()) != TraceSinkEnum.SLF4J) {
+            JCTree.JCVariableDecl methodIdBaseDecl = generateMethodIdBase(jcClassDecl, methodDecls);
+            methodIdBaseName = methodIdBaseDecl.getName().toString();
+            jcClassDecl.defs = jcClassDecl.defs.prepend(methodIdBaseDecl);
+        }
+
         JCTree.JCVariableDecl loggerDecl = generateLogger(jcClassDecl);
         loggerName = loggerDecl.getName().toString();
         jcClassDecl.defs = jcClassDecl.defs.prepend(loggerDecl);
@@ -164,13 +292,14 @@ public class EnableTraceLogTranslator extends TreeTranslator {
 
     @Override
     public void visitMethodDef(JCTree.JCMethodDecl jcMethodDecl) {
-        if(!isMethodWithinFirstClass(jcMethodDecl) || !methodListWithAnnotation.contains(jcMethodDecl.getName().toString()))  {
+        if(!isMethodOfFirstClass(jcMethodDecl) || !methodSetWithAnnotation.contains(jcMethodDecl.sym))  {
             super.visitMethodDef(jcMethodDecl);
             return;
         }
 
-        /* insert request-id variable declaration */
-        insertReqIdDeclaration(jcMethodDecl);
+        curReqIdName = enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("") ? null : generateVariableName("reqId", jcMethodDecl);
+        curTracedName = generateVariableName("traced", jcMethodDecl);
+        curLineName = enableTraceLogMembersMap.get(ConstantsEnum.SINK.getValue()) == TraceSinkEnum.SLF4J ? generateVariableName("line", jcMethodDecl) : null;
 
         /* insert log method parameters part */
         insertLogMethodParamsPart(jcMethodDecl);
@@ -178,17 +307,121 @@ public class EnableTraceLogTranslator extends TreeTranslator {
         /* insert method invocation to log-method-result-func */
         insertLogMethodResultPart(jcMethodDecl);
 
+        /* insert the handler logging the exception thrown by the method */
+        insertLogMethodExceptionPart(jcMethodDecl);
+
+        /* insert request-id and traced-flag variable declarations */
+        insertTraceDeclarations(jcMethodDecl);
+
+        /* wrap the method body to record its latency */
+        insertLatencyPart(jcMethodDecl);
+
         super.visitMethodDef(jcMethodDecl);
     }
 
-    private JCTree.JCVariableDecl generateLogger(JCTree.JCClassDecl classDecl) {
+    /**
+     * Get the runtime key of a method, which is "className#methodName", or "className#methodName(parameterTypes)" if
+     * the traced method is overloaded by another traced method
+     *
+     * @param classDecl
+     * @param methodDecl
+     * @param methodDecls the methods with @TraceLog
+     * @return
+     */
+    private String getMethodKey(JCTree.JCClassDecl classDecl, JCTree.JCMethodDecl methodDecl, ArrayList<JCTree.JCMethodDecl> methodDecls) {
+        for(JCTree.JCMethodDecl otherMethodDecl : methodDecls) {
+            if(otherMethodDecl != methodDecl && otherMethodDecl.getName() == methodDecl.getName()) {
+                return classDecl.sym.flatname.toString() + "#" + methodDecl.sym.toString();
+            }
+        }
+        return classDecl.sym.flatname.toString() + "#" + methodDecl.getName().toString();
+    }
+
+    /**
+     * Select the parameters to be logged by params and exclude of @TraceLog and @NoTrace on the parameters
+     *
+     * @param methodDecl
+     * @param annotationArgList the arguments of @TraceLog
+     * @return
+     */
+    private List<JCTree.JCVariableDecl> selectTracedParams(JCTree.JCMethodDecl methodDecl, List<JCTree.JCExpression> annotationArgList) {
+        Set<String> includedNameSet = new HashSet<>();
+        Set<String> excludedNameSet = new HashSet<>();
+        for(JCTree.JCExpression arg : annotationArgList) {
+            JCTree.JCAssign assign  = (JCTree.JCAssign)arg;
+            String name = ((JCTree.JCIdent)assign.getVariable()).getName().toString();
+            if(name.equals(ConstantsEnum.PARAMS.getValue())) {
+                includedNameSet.addAll(getStringArrayValue(methodDecl, name, assign.getExpression()));
+            }else if(name.equals(ConstantsEnum.EXCLUDE.getValue())) {
+                excludedNameSet.addAll(getStringArrayValue(methodDecl, name, assign.getExpression()));
+            }
+        }
+        Set<String> paramNameSet = methodDecl.getParameters().stream().map(param -> param.getName().toString()).collect(Collectors.toSet());
+        for(String name : new TreeSet<String>() {{ addAll(includedNameSet); addAll(excludedNameSet); }}) {
+            if(!paramNameSet.contains(name)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + ((Symbol.ClassSymbol)methodDecl.sym.owner).fullname + "." + methodDecl.getName().toString() + "@TraceLog: There is no parameter named " + name + ".");
+            }
+        }
+        ListBuffer<JCTree.JCVariableDecl> tracedParams = new ListBuffer<>();
+        for(JCTree.JCVariableDecl param : methodDecl.getParameters()) {
+            String name = param.getName().toString();
+            if((includedNameSet.size() > 0 && !includedNameSet.contains(name)) || excludedNameSet.contains(name)) {
+                continue;
+            }
+            boolean noTrace = false;
+            for(JCTree.JCAnnotation jcAnnotation : param.getModifiers().getAnnotations()) {
+                if(TreeInfo.name(jcAnnotation.getAnnotationType()).toString().equals("NoTrace")) {
+                    noTrace = true;
+                    break;
+                }
+            }
+            if(!noTrace) {
+                tracedParams.append(param);
+            }
+        }
+        return tracedParams.toList();
+    }
+
+    /**
+     * Get the value of a String[] member of annotation, e.g. {"a", "b"} or "a"
+     *
+     * @param methodDecl
+     * @param memberName
+     * @param expression
+     * @return
+     */
+    private ArrayList<String> getStringArrayValue(JCTree.JCMethodDecl methodDecl, String memberName, JCTree.JCExpression expression) {
+        ArrayList<String> values = new ArrayList<>();
+        List<JCTree.JCExpression> elems = expression instanceof JCTree.JCNewArray ? ((JCTree.JCNewArray)expression).elems : List.of(expression);
+        for(JCTree.JCExpression elem : elems) {
+            if(elem instanceof JCTree.JCLiteral && ((JCTree.JCLiteral)elem).getValue() instanceof String) {
+                values.add((String)((JCTree.JCLiteral)elem).getValue());
+            }else{
+                messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + ((Symbol.ClassSymbol)methodDecl.sym.owner).fullname + "." + methodDecl.getName().toString() + "@TraceLog: Please specify " + memberName + " by string literals.");
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get the flags of a generated field which holds a per-class constant. The field is static unless the class is an
+     * inner class, which can't declare static fields
+     *
+     * @param classDecl
+     * @return
+     */
+    private long getGeneratedFieldFlags(JCTree.JCClassDecl classDecl) {
         long varFlag = Flags.PRIVATE | Flags.FINAL;
         Set<Modifier> modifiers = classDecl.getModifiers().getFlags();
         if(classDecl.sym.owner instanceof Symbol.PackageSymbol || modifiers.contains(Modifier.STATIC)) {
             varFlag |= Flags.STATIC;
         }
+        return varFlag;
+    }
+
+    private JCTree.JCVariableDecl generateLogger(JCTree.JCClassDecl classDecl) {
         return astUtils.createVarDecl(
-                varFlag,
+                getGeneratedFieldFlags(classDecl),
                 List.nil(),
                 generateVariableName("log"),
                 "org.slf4j.Logger",
@@ -205,50 +438,260 @@ public class EnableTraceLogTranslator extends TreeTranslator {
     }
 
     /**
-     * Declare a class/method level log switch variable
+     * Move the body of a traced method into a private inner method named "methodName$logtool$inner", and replace the
+     * body with an invocation of the inner method and a single return of its result. So the result is logged at one
+     * place no matter how many return statements the original body has
      *
-     * @param switchKeyCompleteQualifiedName the complete qualified name of switch key property in application configuration file
-     * @param keyType the type of log switch key
-     * @return an instance of JCTree.JCVariableDecl
+     * @param methodDecl
+     * @return the inner method
      */
-    private JCTree.JCVariableDecl generateSwitchKey(String switchKeyCompleteQualifiedName, String keyType, ConstantsEnum level) {
-        JCTree.JCAnnotation valueAnnotation = astUtils.createAnnotation("org.springframework.beans.factory.annotation.Value",
-                new HashMap<String, Object>() {
-                    {
-                        put("value", "${" + switchKeyCompleteQualifiedName + "}");
-                    }
-                },
-                new HashMap<String, String>() {
+    private JCTree.JCMethodDecl generateInnerMethod(JCTree.JCMethodDecl methodDecl) {
+        String innerMethodName = methodDecl.getName().toString() + "$logtool$inner";
+        JCTree.JCMethodDecl innerMethodDecl = astUtils.copyMethodDecl(
+                methodDecl,
+                Flags.PRIVATE | (methodDecl.getModifiers().flags & (Flags.STATIC | Flags.STRICTFP)),
+                innerMethodName,
+                methodDecl.body
+        );
+        JCTree.JCExpression innerInvocation = astUtils.createMethodInvocation0(
+                innerMethodName,
+                new ArrayList<JCTree.JCExpression>() {
                     {
-                        put("value", "java.lang.String");
+                        for(JCTree.JCVariableDecl param : methodDecl.getParameters()) {
+                            add(astUtils.createIdent(param.getName().toString()));
+                        }
                     }
                 }
         );
+        if(methodDecl.getReturnType().type instanceof Type.JCVoidType) {
+            methodDecl.body = astUtils.createBlock(List.of(treeMaker.Exec(innerInvocation)));
+        }else{
+            JCTree.JCVariableDecl resultDecl = generateMethodResultVariable(innerInvocation, methodDecl);
+            methodDecl.body = astUtils.createBlock(
+                    List.of(resultDecl),
+                    List.of(getNewJCReturn(resultDecl))
+            );
+        }
+        return innerMethodDecl;
+    }
 
-        /* the initial value '1' makes switch keys to be compatible when using keyword 'new' to build an instance of class */
+    /**
+     * Declare the base of method ids of the class for the binary or file sink. The id of a traced method is the base plus its
+     * compile-time ordinal in the class
+     *
+     * @param classDecl
+     * @param methodDecls the methods with @TraceLog
+     * @return an instance of JCTree.JCVariableDecl
+     */
+    private JCTree.JCVariableDecl generateMethodIdBase(JCTree.JCClassDecl classDecl, ArrayList<JCTree.JCMethodDecl> methodDecls) {
+        ListBuffer<JCTree.JCExpression> methodDescriptors = new ListBuffer<>();
+        for(JCTree.JCMethodDecl methodDecl : methodDecls) {
+            if(methodOrdinalMap.containsKey(methodDecl.sym)) {
+                continue;
+            }
+            methodOrdinalMap.put(methodDecl.sym, methodOrdinalMap.size());
+            methodDescriptors.append(astUtils.createLiteral(
+                    methodDecl.getName().toString() + ":" + methodTracedParamsMap.get(methodDecl.sym).stream().map(param -> param.getName().toString()).collect(Collectors.joining(","))
+            ));
+        }
+        List<JCTree.JCExpression> finalMethodDescriptors = methodDescriptors.toList();
         return astUtils.createVarDecl(
-                Flags.PRIVATE,
-                List.of(valueAnnotation),
+                getGeneratedFieldFlags(classDecl),
+                List.nil(),
+                generateVariableName("methodIdBase"),
+                "int",
+                astUtils.createMethodInvocation0(
+                        getSinkClassName() + ".registerClass",
+                        new ArrayList<JCTree.JCExpression>() {
+                            {
+                                add(astUtils.createLiteral(classDecl.sym.flatname.toString()));
+                                add(astUtils.createNewArrayExpression("java.lang.String", finalMethodDescriptors));
+                                if(enableTraceLogMembersMap.get(ConstantsEnum.SINK.getValue()) == TraceSinkEnum.FILE && isJsonFormat()) {
+                                    add(astUtils.createLiteral(true));
+                                }
+                            }
+                        }
+                )
+        );
+    }
+
+    private boolean isJsonFormat() {
+        return enableTraceLogMembersMap.get(ConstantsEnum.FORMAT.getValue()) == TraceFormatEnum.JSON;
+    }
+
+    /**
+     * @return the runtime class of the binary or file sink of class
+     */
+    private String getSinkClassName() {
+        if(enableTraceLogMembersMap.get(ConstantsEnum.SINK.getValue()) == TraceSinkEnum.FILE) {
+            return "com.yuangancheng.logtool.runtime.FileTraceSink";
+        }
+        return "com.yuangancheng.logtool.runtime.BinaryTraceSink";
+    }
+
+    /**
+     * Declare the sampler of a method
+     *
+     * @param classDecl
+     * @param samplerKey the key to override the sample rate at runtime
+     * @param sampleRate the compile-time sample rate
+     * @return an instance of JCTree.JCVariableDecl
+     */
+    private JCTree.JCVariableDecl generateSampler(JCTree.JCClassDecl classDecl, String samplerKey, double sampleRate) {
+        return astUtils.createVarDecl(
+                getGeneratedFieldFlags(classDecl),
+                List.nil(),
+                generateVariableName("sampler"),
+                "com.yuangancheng.logtool.runtime.TraceSampler",
+                astUtils.createMethodInvocation0(
+                        "com.yuangancheng.logtool.runtime.TraceSampler.register",
+                        new ArrayList<JCTree.JCExpression>() {
+                            {
+                                add(astUtils.createLiteral(samplerKey));
+                                add(astUtils.createLiteral(sampleRate));
+                            }
+                        }
+                )
+        );
+    }
+
+    /**
+     * Declare the rate limiter of a method
+     *
+     * @param classDecl
+     * @param rateLimiterKey the key to override the limit at runtime
+     * @param maxPerSecond the compile-time limit
+     * @return an instance of JCTree.JCVariableDecl
+     */
+    private JCTree.JCVariableDecl generateRateLimiter(JCTree.JCClassDecl classDecl, String rateLimiterKey, int maxPerSecond) {
+        return astUtils.createVarDecl(
+                getGeneratedFieldFlags(classDecl),
+                List.nil(),
+                generateVariableName("rateLimiter"),
+                "com.yuangancheng.logtool.runtime.TraceRateLimiter",
+                astUtils.createMethodInvocation0(
+                        "com.yuangancheng.logtool.runtime.TraceRateLimiter.register",
+                        new ArrayList<JCTree.JCExpression>() {
+                            {
+                                add(astUtils.createLiteral(rateLimiterKey));
+                                add(astUtils.createLiteral(maxPerSecond));
+                            }
+                        }
+                )
+        );
+    }
+
+    /**
+     * Declare the latency histogram of a method
+     *
+     * @param classDecl
+     * @param histogramKey the key to query the histogram at runtime
+     * @return an instance of JCTree.JCVariableDecl
+     */
+    private JCTree.JCVariableDecl generateLatencyHistogram(JCTree.JCClassDecl classDecl, String histogramKey) {
+        return astUtils.createVarDecl(
+                getGeneratedFieldFlags(classDecl),
+                List.nil(),
+                generateVariableName("histogram"),
+                "com.yuangancheng.logtool.runtime.TraceLatencyHistogram",
+                astUtils.createMethodInvocation0(
+                        "com.yuangancheng.logtool.runtime.TraceLatencyHistogram.register",
+                        new ArrayList<JCTree.JCExpression>() {
+                            {
+                                add(astUtils.createLiteral(histogramKey));
+                            }
+                        }
+                )
+        );
+    }
+
+    /**
+     * Declare a class/method level log switch variable, which holds the index of the switch in TraceSwitchRegistry
+     *
+     * @param classDecl
+     * @param switchKeyCompleteQualifiedName the complete qualified name of switch key
+     * @return an instance of JCTree.JCVariableDecl
+     */
+    private JCTree.JCVariableDecl generateSwitchKey(JCTree.JCClassDecl classDecl, String switchKeyCompleteQualifiedName, ConstantsEnum level) {
+        return astUtils.createVarDecl(
+                getGeneratedFieldFlags(classDecl),
+                List.nil(),
                 generateVariableName(level.getValue()),
-                keyType,
-                astUtils.createLiteral(1)
+                "int",
+                astUtils.createMethodInvocation0(
+                        "com.yuangancheng.logtool.runtime.TraceSwitchRegistry.register",
+                        new ArrayList<JCTree.JCExpression>() {
+                            {
+                                add(astUtils.createLiteral(switchKeyCompleteQualifiedName));
+                            }
+                        }
+                )
         );
     }
 
-    private void insertReqIdDeclaration(JCTree.JCMethodDecl methodDecl) {
-        if(enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("")) {
+    /**
+     * Wrap the whole method body into try-finally to record the elapsed time of every invocation into the latency
+     * histogram, so the void methods and the exceptional exits are counted as well
+     *
+     * @param methodDecl
+     */
+    private void insertLatencyPart(JCTree.JCMethodDecl methodDecl) {
+        if(!methodHistogramMap.containsKey(methodDecl.sym)) {
             return;
         }
-        JCTree.JCVariableDecl headerStringDecl = astUtils.createVarDecl(
+        String startName = generateVariableName("startNanos", methodDecl);
+        JCTree.JCVariableDecl startDecl = astUtils.createVarDecl(
+                Flags.FINAL,
+                List.nil(),
+                startName,
+                "long",
+                astUtils.createMethodInvocation0("java.lang.System.nanoTime", new ArrayList<>())
+        );
+        JCTree.JCStatement recordStatement = astUtils.createMethodInvocationExpressionStatement(
+                methodHistogramMap.get(methodDecl.sym) + ".record",
+                new ArrayList<JCTree.JCExpression>() {
+                    {
+                        add(astUtils.createBinaryExpression(
+                                astUtils.createMethodInvocation0("java.lang.System.nanoTime", new ArrayList<>()),
+                                JCTree.Tag.MINUS,
+                                astUtils.createIdent(startName)
+                        ));
+                    }
+                }
+        );
+        methodDecl.body = astUtils.createBlock(
+                List.of(startDecl),
+                List.of(astUtils.createTryStatement(methodDecl.body, List.nil(), astUtils.createBlock(List.of(recordStatement))))
+        );
+    }
+
+    /**
+     * Insert the declarations of request id and traced flag at the beginning of method. The traced flag is evaluated
+     * once per invocation, so the parameters and the result of an invocation are always traced (or sampled) together
+     *
+     * @param methodDecl
+     */
+    private void insertTraceDeclarations(JCTree.JCMethodDecl methodDecl) {
+        JCTree.JCVariableDecl tracedDecl = astUtils.createVarDecl(
                 0,
                 List.nil(),
-                generateVariableName("reqId"),
-                "String",
-                astUtils.createLiteral("")
+                curTracedName,
+                "boolean",
+                generateSwitchIfCondition(methodDecl)
         );
-        curReqIdName = headerStringDecl.getName().toString();
+        JCTree.JCVariableDecl headerStringDecl = null;
+        if(curReqIdName != null) {
+            headerStringDecl = astUtils.createVarDecl(
+                    0,
+                    List.nil(),
+                    curReqIdName,
+                    "String",
+                    astUtils.createLiteral("")
+            );
+        }
         methodDecl.body = astUtils.createBlock(
-                List.of(headerStringDecl),
+                headerStringDecl == null ? List.nil() : List.of(headerStringDecl),
+                List.of(tracedDecl),
                 methodDecl.body.getStatements()
         );
     }
@@ -260,62 +703,26 @@ public class EnableTraceLogTranslator extends TreeTranslator {
      * @return
      */
     private void insertLogMethodParamsPart(JCTree.JCMethodDecl methodDecl) {
-        if(methodDecl.getParameters().size() == 0 && enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("")) {
+        List<JCTree.JCVariableDecl> tracedParams = methodTracedParamsMap.get(methodDecl.sym);
+        if(tracedParams.size() == 0 && enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("")) {
             return;
         }
-        String prefix = methodDecl.getName().toString() + "{in: {";
-        String colonSpace = ": ";
-        String comma = ", ";
-        String suffix = "}}";
-        String braces = "{}";
-        StringBuilder preparedBraces = new StringBuilder();
-        preparedBraces.append(prefix);
-        methodDecl.getParameters().forEach(jcVariableDecl -> {
-            preparedBraces.append(jcVariableDecl.getName().toString())
-                    .append(colonSpace)
-                    .append(braces)
-                    .append(comma);
-        });
-        preparedBraces.delete(preparedBraces.length() - 2, preparedBraces.length());
-        preparedBraces.append(suffix);
         JCTree.JCStatement logMethodParamsStatement = null;
-        if(methodDecl.getParameters().size() > 0) {
-            logMethodParamsStatement = astUtils.createMethodInvocationExpressionStatement(
-                    loggerName + ".info",
-                    new ArrayList<JCTree.JCExpression>() {
-                        {
-                            add(!enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("") ?
-                                    astUtils.createBinaryExpression(astUtils.createIdent(curReqIdName), JCTree.Tag.PLUS, astUtils.createBinaryExpression(astUtils.createLiteral(":"), JCTree.Tag.PLUS, astUtils.createLiteral(preparedBraces.toString()))) :
-                                    astUtils.createLiteral(preparedBraces.toString())
-                            );
-                            addAll(
-                                    methodDecl.getParameters().stream()
-                                            .map(jcVariableDecl -> astUtils.createIdent(jcVariableDecl.getName().toString()))
-                                            .collect(Collectors.toList())
-                            );
-                        }
-                    }
+        if(tracedParams.size() > 0) {
+            logMethodParamsStatement = generateTraceStatement(
+                    methodDecl,
+                    TracePhaseEnum.IN,
+                    methodDecl.getName().toString() + "{in: {" + generateParamsPattern(methodDecl) + "}}",
+                    generateParamsIdents(methodDecl),
+                    generateParamsTypes(methodDecl)
             );
         }
         JCTree.JCStatement headerStringAssignStatement = null;
         if(!enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("")) {
             headerStringAssignStatement = astUtils.createAssignStatement(
                     astUtils.createIdent(curReqIdName),
-                    astUtils.createMethodInvocation1(
-                            astUtils.createMethodInvocation1(
-                                    astUtils.createParensExpression(
-                                            astUtils.createTypeCastExpression(
-                                                    astUtils.getClassType("org.springframework.web.context.request.ServletRequestAttributes"),
-                                                    astUtils.createMethodInvocation1(
-                                                            astUtils.createCompleteFieldAccess("org.springframework.web.context.request.RequestContextHolder"),
-                                                            "getRequestAttributes",
-                                                            new ArrayList<>())
-                                            )
-                                    ),
-                                    "getRequest",
-                                    new ArrayList<>()
-                            ),
-                            "getHeader",
+                    astUtils.createMethodInvocation0(
+                            "com.yuangancheng.logtool.runtime.TraceContext.getReqId",
                             new ArrayList<JCTree.JCExpression>() {
                                 {
                                     add(astUtils.createLiteral(enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue())));
@@ -324,32 +731,425 @@ public class EnableTraceLogTranslator extends TreeTranslator {
                     )
             );
         }
-        JCTree.JCExpression switchIfCond = astUtils.createBinaryExpression(
-                enableMethodLevelSwitchSet.contains(methodDecl.getName().toString()) ?
-                        astUtils.createBinaryExpression(astUtils.createIdent(methodLevelSwitchKeyMap.get(methodDecl.getName().toString())), JCTree.Tag.EQ, astUtils.createLiteral(1)) :
-                        astUtils.createLiteral(true),
-                JCTree.Tag.AND,
-                (Boolean)enableTraceLogMembersMap.get(ConstantsEnum.ENABLE_CLASS_LEVEL_SWITCH.getValue()) ?
-                        astUtils.createBinaryExpression(astUtils.createIdent(classLevelSwitchKey), JCTree.Tag.EQ, astUtils.createLiteral(1)) :
-                        astUtils.createLiteral(true)
-        );
         JCTree.JCStatement switchIfStatement = astUtils.createIfStatement(
-                switchIfCond,
+                astUtils.createIdent(curTracedName),
                 astUtils.createBlock(
                         enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("") ? List.nil() : List.of(headerStringAssignStatement),
-                        methodDecl.getParameters().size() == 0 ? List.nil() : List.of(logMethodParamsStatement)
+                        tracedParams.size() == 0 ? List.nil() : List.of(logMethodParamsStatement)
                 ),
                 null
         );
         methodDecl.body = astUtils.createBlock(
-                enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("") ? List.nil() : List.of(methodDecl.body.getStatements().get(0)),
                 List.of(switchIfStatement),
-                enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("") ? methodDecl.body.getStatements() : List.from(methodDecl.body.getStatements().subList(1, methodDecl.body.getStatements().size()))
+                methodDecl.body.getStatements()
+        );
+    }
+
+    /**
+     * Generate the pattern of method's parameters, e.g. "frequency: {}, name: {}"
+     *
+     * @param methodDecl
+     * @return
+     */
+    private String generateParamsPattern(JCTree.JCMethodDecl methodDecl) {
+        return methodTracedParamsMap.get(methodDecl.sym).stream()
+                .map(jcVariableDecl -> jcVariableDecl.getName().toString() + ": {}")
+                .collect(Collectors.joining(", "));
+    }
+
+    private ArrayList<JCTree.JCExpression> generateParamsIdents(JCTree.JCMethodDecl methodDecl) {
+        return methodTracedParamsMap.get(methodDecl.sym).stream()
+                .map(jcVariableDecl -> astUtils.createIdent(jcVariableDecl.getName().toString()))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private ArrayList<Type> generateParamsTypes(JCTree.JCMethodDecl methodDecl) {
+        return methodTracedParamsMap.get(methodDecl.sym).stream()
+                .map(jcVariableDecl -> jcVariableDecl.vartype.type)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Wrap the method body into try-catch to log the exception thrown by the method along with its parameters and the
+     * line number of the return statement being evaluated (0 if the exception is not thrown by a return statement),
+     * then rethrow it. The normal path only pays for a local variable store before evaluating a complex return
+     * statement
+     *
+     * @param methodDecl
+     */
+    private void insertLogMethodExceptionPart(JCTree.JCMethodDecl methodDecl) {
+        if(curLineName == null) {
+            return;
+        }
+        String throwableName = generateVariableName("throwable", methodDecl);
+        JCTree.JCVariableDecl lineDecl = astUtils.createVarDecl(
+                0,
+                List.nil(),
+                curLineName,
+                "int",
+                astUtils.createLiteral(0)
+        );
+        String pattern = methodDecl.getName().toString() + "{error: {line: {}" + (methodTracedParamsMap.get(methodDecl.sym).size() > 0 ? ", params: {" + generateParamsPattern(methodDecl) + "}" : "") + "}}";
+        JCTree.JCStatement logMethodExceptionStatement = generateTraceStatement(
+                methodDecl,
+                TracePhaseEnum.ERROR,
+                pattern,
+                new ArrayList<JCTree.JCExpression>() {
+                    {
+                        add(astUtils.createIdent(curLineName));
+                        addAll(generateParamsIdents(methodDecl));
+                        add(astUtils.createIdent(throwableName));
+                    }
+                },
+                new ArrayList<Type>() {
+                    {
+                        add(symtab.intType);
+                        addAll(generateParamsTypes(methodDecl));
+                        add(null);
+                    }
+                }
+        );
+        JCTree.JCCatch jcCatch = astUtils.createCatch(
+                astUtils.createVarDecl(Flags.PARAMETER, List.nil(), throwableName, "java.lang.Throwable", null),
+                astUtils.createBlock(
+                        List.of(astUtils.createIfStatement(astUtils.createIdent(curTracedName), astUtils.createBlock(List.of(logMethodExceptionStatement)), null)),
+                        List.of(treeMaker.Throw(astUtils.createIdent(throwableName)))
+                )
+        );
+        methodDecl.body = astUtils.createBlock(
+                List.of(lineDecl),
+                List.of(astUtils.createTryStatement(methodDecl.body, List.of(jcCatch), null))
+        );
+    }
+
+    /**
+     * Generate the condition guarding all the logging work of a method: the class/method-level switches first, then
+     * whether the logger is enabled for the method's log level, so that a disabled tracer costs a single branch, and
+     * the sampling decision and the rate limit at last (so that the invocations sampled out do not take the quota)
+     *
+     * @param methodDecl
+     * @return
+     */
+    private JCTree.JCExpression generateSwitchIfCondition(JCTree.JCMethodDecl methodDecl) {
+        JCTree.JCExpression switchCond = astUtils.createBinaryExpression(
+                methodLevelSwitchKeyMap.containsKey(methodDecl.sym) ?
+                        generateSwitchOnExpression(methodLevelSwitchKeyMap.get(methodDecl.sym)) :
+                        astUtils.createLiteral(true),
+                JCTree.Tag.AND,
+                classLevelSwitchKey != null ?
+                        generateSwitchOnExpression(classLevelSwitchKey) :
+                        astUtils.createLiteral(true)
+        );
+        JCTree.JCExpression levelCond = astUtils.createBinaryExpression(
+                switchCond,
+                JCTree.Tag.AND,
+                astUtils.createMethodInvocation0(loggerName + "." + methodLevelMap.get(methodDecl.sym).getEnabledMethodName(), new ArrayList<>())
+        );
+        JCTree.JCExpression sampleCond = levelCond;
+        if(methodSamplerMap.containsKey(methodDecl.sym)) {
+            sampleCond = astUtils.createBinaryExpression(
+                    levelCond,
+                    JCTree.Tag.AND,
+                    astUtils.createMethodInvocation0(methodSamplerMap.get(methodDecl.sym) + ".sample", new ArrayList<>())
+            );
+        }
+        if(!methodRateLimiterMap.containsKey(methodDecl.sym)) {
+            return sampleCond;
+        }
+        return astUtils.createBinaryExpression(
+                sampleCond,
+                JCTree.Tag.AND,
+                astUtils.createMethodInvocation0(methodRateLimiterMap.get(methodDecl.sym) + ".tryAcquire", new ArrayList<>())
+        );
+    }
+
+    private JCTree.JCExpression generateSwitchOnExpression(String switchKeyName) {
+        return astUtils.createMethodInvocation0(
+                "com.yuangancheng.logtool.runtime.TraceSwitchRegistry.isOn",
+                new ArrayList<JCTree.JCExpression>() {
+                    {
+                        add(astUtils.createIdent(switchKeyName));
+                    }
+                }
+        );
+    }
+
+    /**
+     * Generate a statement which traces the parameters or the result of method into the sink of class
+     *
+     * @param methodDecl
+     * @param phase
+     * @param pattern the pattern of method's parameters or result
+     * @param values the parameters or the result
+     * @param types the compile-time types of values, null if unknown
+     * @return
+     */
+    private JCTree.JCStatement generateTraceStatement(JCTree.JCMethodDecl methodDecl, TracePhaseEnum phase, String pattern, ArrayList<JCTree.JCExpression> values, ArrayList<Type> types) {
+        boolean hasReqId = !enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("");
+        TraceSinkEnum sink = (TraceSinkEnum)enableTraceLogMembersMap.get(ConstantsEnum.SINK.getValue());
+        if(sink != TraceSinkEnum.SLF4J) {
+            String sinkClassName = getSinkClassName();
+            ListBuffer<JCTree.JCStatement> statements = new ListBuffer<>();
+            ArrayList<JCTree.JCExpression> capturedValues = evaluateCapturedValues(methodDecl, values, types, statements);
+            statements.append(astUtils.createMethodInvocationExpressionStatement(
+                    sinkClassName + (phase == TracePhaseEnum.IN ? ".in" : ".out"),
+                    new ArrayList<JCTree.JCExpression>() {
+                        {
+                            add(astUtils.createBinaryExpression(astUtils.createIdent(methodIdBaseName), JCTree.Tag.PLUS, astUtils.createLiteral(methodOrdinalMap.get(methodDecl.sym))));
+                            if(sink == TraceSinkEnum.FILE) {
+                                add(astUtils.createCompleteFieldAccess("com.yuangancheng.logtool.enums.LogLevelEnum." + methodLevelMap.get(methodDecl.sym).name()));
+                            }
+                            add(hasReqId ? astUtils.createIdent(curReqIdName) : astUtils.createNullLiteral());
+                            add(generateCaptureExpression(astUtils.createMethodInvocation0(sinkClassName + ".args", new ArrayList<>()), capturedValues, types));
+                        }
+                    }
+            ));
+            return statements.size() == 1 ? statements.first() : astUtils.createBlock(statements.toList());
+        }
+        /*
+         * the exception thrown by method is passed to the logger after the arguments of pattern, while a JSON line
+         * keeps it on one line: the exception and its stack trace are the last arguments of JSON pattern instead
+         */
+        boolean json = isJsonFormat();
+        int patternArgNum = phase == TracePhaseEnum.ERROR && !json ? values.size() - 1 : values.size();
+        ArrayList<JCTree.JCExpression> patternArgs = new ArrayList<>(values.subList(0, patternArgNum));
+        ArrayList<Type> patternArgTypes = new ArrayList<>(types.subList(0, patternArgNum));
+        JCTree.JCExpression throwable = null;
+        if(phase == TracePhaseEnum.ERROR) {
+            if(json) {
+                patternArgs.add(astUtils.createMethodInvocation1(
+                        astUtils.createIdent(TreeInfo.name(values.get(values.size() - 1)).toString()),
+                        "getStackTrace",
+                        new ArrayList<>()
+                ));
+                patternArgTypes.add(null);
+            }else{
+                throwable = values.get(values.size() - 1);
+            }
+        }
+        return generateLogStatement(
+                methodDecl,
+                new ArrayList<JCTree.JCExpression>() {
+                    {
+                        add(astUtils.createLiteral(json ? generateJsonPattern(methodDecl, phase) : generateLogPattern(pattern)));
+                        if(hasReqId) {
+                            add(astUtils.createIdent(curReqIdName));
+                        }
+                        addAll(patternArgs);
+                    }
+                },
+                new ArrayList<Type>() {
+                    {
+                        if(hasReqId) {
+                            add(null);
+                        }
+                        addAll(patternArgTypes);
+                    }
+                },
+                throwable
+        );
+    }
+
+    /**
+     * Generate the pattern of a JSON line after the timestamp and the thread, whose keys and constant values are
+     * computed here, e.g. "level":"INFO","reqId":{},"class":"com.example.Dog","method":"bark","phase":"in","params":{"times":{}}}
+     * The class, method and parameter names are written without escaping, since Java identifiers have no quote,
+     * backslash or control character
+     *
+     * @param methodDecl
+     * @param phase
+     * @return
+     */
+    private String generateJsonPattern(JCTree.JCMethodDecl methodDecl, TracePhaseEnum phase) {
+        StringBuilder pattern = new StringBuilder();
+        pattern.append("\"level\":\"").append(methodLevelMap.get(methodDecl.sym).name()).append("\",");
+        if(!enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("")) {
+            pattern.append("\"reqId\":{},");
+        }
+        pattern.append("\"class\":\"").append(((Symbol.ClassSymbol)methodDecl.sym.owner).flatname.toString()).append("\",");
+        pattern.append("\"method\":\"").append(methodDecl.getName().toString()).append("\",");
+        pattern.append("\"phase\":\"").append(phase.name().toLowerCase()).append("\"");
+        String params = methodTracedParamsMap.get(methodDecl.sym).stream()
+                .map(jcVariableDecl -> "\"" + jcVariableDecl.getName().toString() + "\":{}")
+                .collect(Collectors.joining(","));
+        switch(phase) {
+            case IN:
+                pattern.append(",\"params\":{").append(params).append("}");
+                break;
+            case OUT:
+                pattern.append(",\"result\":{}");
+                break;
+            default:
+                pattern.append(",\"line\":{}");
+                if(!params.isEmpty()) {
+                    pattern.append(",\"params\":{").append(params).append("}");
+                }
+                pattern.append(",\"exception\":{},\"stack\":{}");
+                break;
+        }
+        return pattern.append("}").toString();
+    }
+
+    /**
+     * Generate a log statement of method. The message is formatted by TraceArgFormatter, so the arguments are rendered
+     * by the bounded TraceArgRenderer. In async mode, the statement puts the arguments into a slot of the ring buffer
+     * of AsyncTraceLog by their compile-time types (so the primitives are not boxed) instead of calling the logger
+     * directly, and the message is formatted on the consumer thread
+     *
+     * @param methodDecl
+     * @param logArgs the pattern followed by its arguments
+     * @param types the compile-time types of the arguments, null if unknown
+     * @param throwable the exception thrown by method, or null
+     * @return
+     */
+    private JCTree.JCStatement generateLogStatement(JCTree.JCMethodDecl methodDecl, ArrayList<JCTree.JCExpression> logArgs, ArrayList<Type> types, JCTree.JCExpression throwable) {
+        LogLevelEnum level = methodLevelMap.get(methodDecl.sym);
+        if(!(Boolean)enableTraceLogMembersMap.get(ConstantsEnum.ASYNC.getValue())) {
+            /* an array of objects must not be spread into the varargs of formatter */
+            for(int i = 1; i < logArgs.size(); i++) {
+                Type type = types.get(i - 1);
+                if(type instanceof Type.ArrayType && !((Type.ArrayType)type).elemtype.isPrimitive()) {
+                    logArgs.set(i, treeMaker.TypeCast(astUtils.createCompleteFieldAccess("java.lang.Object"), logArgs.get(i)));
+                }
+            }
+            JCTree.JCExpression messageExpression;
+            if(isJsonFormat()) {
+                /* the timestamp and the thread are always written */
+                messageExpression = astUtils.createMethodInvocation0("com.yuangancheng.logtool.runtime.TraceArgFormatter.formatJson", logArgs);
+            }else{
+                messageExpression = logArgs.size() == 1 ? logArgs.get(0) : astUtils.createMethodInvocation0("com.yuangancheng.logtool.runtime.TraceArgFormatter.format", logArgs);
+            }
+            return astUtils.createMethodInvocationExpressionStatement(
+                    loggerName + "." + level.getLogMethodName(),
+                    new ArrayList<JCTree.JCExpression>() {
+                        {
+                            add(messageExpression);
+                            if(throwable != null) {
+                                add(throwable);
+                            }
+                        }
+                    }
+            );
+        }
+        JCTree.JCExpression claimExpression = astUtils.createMethodInvocation0(
+                "com.yuangancheng.logtool.runtime.AsyncTraceLog.claim",
+                new ArrayList<JCTree.JCExpression>() {
+                    {
+                        add(astUtils.createIdent(loggerName));
+                        add(astUtils.createCompleteFieldAccess("com.yuangancheng.logtool.enums.LogLevelEnum." + level.name()));
+                        add(astUtils.createCompleteFieldAccess("com.yuangancheng.logtool.enums.OverflowPolicyEnum." + ((OverflowPolicyEnum)enableTraceLogMembersMap.get(ConstantsEnum.OVERFLOW_POLICY.getValue())).name()));
+                        add(astUtils.createLiteral(enableTraceLogMembersMap.get(ConstantsEnum.SNAPSHOT_ARGS.getValue())));
+                        if(isJsonFormat()) {
+                            add(astUtils.createLiteral(true));
+                        }
+                        add(logArgs.get(0));
+                    }
+                }
         );
+        ArrayList<JCTree.JCExpression> values = new ArrayList<>(logArgs.subList(1, logArgs.size()));
+        ArrayList<Type> valueTypes = new ArrayList<>(types);
+        if(throwable != null) {
+            values.add(throwable);
+            valueTypes.add(null);
+        }
+        ListBuffer<JCTree.JCStatement> statements = new ListBuffer<>();
+        ArrayList<JCTree.JCExpression> capturedValues = evaluateCapturedValues(methodDecl, values, valueTypes, statements);
+        statements.append(astUtils.createMethodInvocationExpressionStatement(
+                "com.yuangancheng.logtool.runtime.AsyncTraceLog.publish",
+                new ArrayList<JCTree.JCExpression>() {
+                    {
+                        add(generateCaptureExpression(claimExpression, capturedValues, valueTypes));
+                    }
+                }
+        ));
+        return statements.size() == 1 ? statements.first() : astUtils.createBlock(statements.toList());
+    }
+
+    /**
+     * Evaluate the captured values other than identifiers and literals (e.g. the array access of a return statement,
+     * which is evaluated again by the return) into local variables before the arguments are claimed, so a value
+     * which throws never leaves a claimed slot of the ring buffer unpublished (which would stall the consumer) or the
+     * arguments of current thread unreleased
+     *
+     * @param values
+     * @param types the compile-time types of values, null if unknown
+     * @param statements where the declarations of the local variables are appended
+     * @return the values to be captured
+     */
+    private ArrayList<JCTree.JCExpression> evaluateCapturedValues(JCTree.JCMethodDecl methodDecl, ArrayList<JCTree.JCExpression> values, ArrayList<Type> types, ListBuffer<JCTree.JCStatement> statements) {
+        ArrayList<JCTree.JCExpression> capturedValues = new ArrayList<>();
+        for(int i = 0; i < values.size(); i++) {
+            JCTree.JCExpression value = values.get(i);
+            if(value instanceof JCTree.JCIdent || value instanceof JCTree.JCLiteral) {
+                capturedValues.add(value);
+                continue;
+            }
+            Type type = types.get(i);
+            JCTree.JCVariableDecl capturedDecl = astUtils.createVarDecl(
+                    0,
+                    List.nil(),
+                    generateVariableName("captured", methodDecl),
+                    type != null && type.isPrimitive() ? type.toString() : "java.lang.Object",
+                    value
+            );
+            statements.append(capturedDecl);
+            capturedValues.add(astUtils.createIdent(capturedDecl.getName().toString()));
+        }
+        return capturedValues;
+    }
+
+    /**
+     * Generate the chain of put invocations which captures the values into TraceArgs, e.g.
+     * args.putInt(frequency).putObject(name)
+     *
+     * @param argsExpression the expression of TraceArgs
+     * @param values
+     * @param types the compile-time types of values, null if unknown
+     * @return
+     */
+    private JCTree.JCExpression generateCaptureExpression(JCTree.JCExpression argsExpression, ArrayList<JCTree.JCExpression> values, ArrayList<Type> types) {
+        JCTree.JCExpression captureExpression = argsExpression;
+        for(int i = 0; i < values.size(); i++) {
+            JCTree.JCExpression value = values.get(i);
+            captureExpression = astUtils.createMethodInvocation1(
+                    captureExpression,
+                    getPutMethodName(types.get(i)),
+                    new ArrayList<JCTree.JCExpression>() {
+                        {
+                            add(value);
+                        }
+                    }
+            );
+        }
+        return captureExpression;
+    }
+
+    private String getPutMethodName(Type type) {
+        if(type == null || !type.isPrimitive()) {
+            return "putObject";
+        }
+        switch(type.getTag()) {
+            case BYTE:
+            case SHORT:
+            case INT:
+                return "putInt";
+            case LONG:
+                return "putLong";
+            case FLOAT:
+                return "putFloat";
+            case DOUBLE:
+                return "putDouble";
+            case BOOLEAN:
+                return "putBoolean";
+            case CHAR:
+                return "putChar";
+            default:
+                return "putObject";
+        }
     }
 
     private void insertLogMethodResultPart(JCTree.JCMethodDecl methodDecl) {
-        if(methodDecl.getReturnType().type instanceof Type.JCVoidType) {
+        if(methodDecl.getReturnType().type instanceof Type.JCVoidType || methodWithoutResultSet.contains(methodDecl.sym)) {
             return;
         }
         methodDecl.body = processJCBlock(methodDecl.getBody(), methodDecl);
@@ -359,16 +1159,28 @@ public class EnableTraceLogTranslator extends TreeTranslator {
         if(oldBlock == null) {
             return null;
         }
-        List<JCTree.JCStatement> newList = List.nil();
-        for(JCTree.JCStatement statement : oldBlock.getStatements()) {
+        return astUtils.createBlock(processJCStatements(oldBlock.getStatements(), methodDecl));
+    }
+
+    /**
+     * Process a list of statements in a single pass, the rewritten statements are collected by a ListBuffer since
+     * List.append copies the whole list
+     *
+     * @param statements
+     * @param methodDecl
+     * @return
+     */
+    private List<JCTree.JCStatement> processJCStatements(List<JCTree.JCStatement> statements, JCTree.JCMethodDecl methodDecl) {
+        ListBuffer<JCTree.JCStatement> newStatements = new ListBuffer<>();
+        for(JCTree.JCStatement statement : statements) {
             if(statement instanceof JCTree.JCReturn) {
                 JCTree.JCBlock returnBlock = processJCReturn((JCTree.JCReturn)statement, methodDecl);
-                newList = newList.appendList(returnBlock.getStatements());
+                newStatements.appendList(returnBlock.getStatements());
             }else{
-                newList = newList.append(processJCStatement(statement, methodDecl));
+                newStatements.append(processJCStatement(statement, methodDecl));
             }
         }
-        return astUtils.createBlock(newList);
+        return newStatements.toList();
     }
 
     private JCTree.JCWhileLoop processJCWhileLoop(JCTree.JCWhileLoop whileLoop, JCTree.JCMethodDecl methodDecl) {
@@ -417,20 +1229,11 @@ public class EnableTraceLogTranslator extends TreeTranslator {
     }
 
     private JCTree.JCSwitch processJCSwitch(JCTree.JCSwitch jcSwitch, JCTree.JCMethodDecl methodDecl) {
-        List<JCTree.JCCase> newCases = List.nil();
+        ListBuffer<JCTree.JCCase> newCases = new ListBuffer<>();
         for(JCTree.JCCase jcCase : jcSwitch.getCases()) {
-            List<JCTree.JCStatement> newCaseStatements = List.nil();
-            for(JCTree.JCStatement statement : jcCase.getStatements()) {
-                if(statement instanceof JCTree.JCReturn) {
-                    JCTree.JCBlock returnBlock = processJCReturn((JCTree.JCReturn)statement, methodDecl);
-                    newCaseStatements = newCaseStatements.appendList(returnBlock.getStatements());
-                }else{
-                    newCaseStatements = newCaseStatements.append(processJCStatement(statement, methodDecl));
-                }
-            }
-            newCases = newCases.append(astUtils.createCaseStatement(jcCase.getExpression(), newCaseStatements));
+            newCases.append(astUtils.createCaseStatement(jcCase.getExpression(), processJCStatements(jcCase.getStatements(), methodDecl)));
         }
-        return astUtils.createSwitchStatement(jcSwitch.getExpression(), newCases);
+        return astUtils.createSwitchStatement(jcSwitch.getExpression(), newCases.toList());
     }
 
     private JCTree.JCIf processJCIf(JCTree.JCIf jcIf, JCTree.JCMethodDecl methodDecl) {
@@ -461,13 +1264,13 @@ public class EnableTraceLogTranslator extends TreeTranslator {
 
     private JCTree.JCTry processJCTry(JCTree.JCTry jcTry, JCTree.JCMethodDecl methodDecl) {
         JCTree.JCBlock newTryBody = processJCBlock(jcTry.getBlock(), methodDecl);
-        List<JCTree.JCCatch> newCatches = List.nil();
+        ListBuffer<JCTree.JCCatch> newCatches = new ListBuffer<>();
         for(JCTree.JCCatch jcCatch : jcTry.getCatches()) {
             JCTree.JCBlock newCatchBody = processJCBlock(jcCatch.getBlock(), methodDecl);
-            newCatches = newCatches.append(astUtils.createCatch(jcCatch.getParameter(), newCatchBody));
+            newCatches.append(astUtils.createCatch(jcCatch.getParameter(), newCatchBody));
         }
         JCTree.JCBlock newFinalizerBody = processJCBlock(jcTry.getFinallyBlock(), methodDecl);
-        return astUtils.createTryStatement(newTryBody, newCatches, newFinalizerBody);
+        return astUtils.createTryStatement(newTryBody, newCatches.toList(), newFinalizerBody);
     }
 
     private JCTree.JCSynchronized processJCSynchronized(JCTree.JCSynchronized jcSynchronized, JCTree.JCMethodDecl methodDecl) {
@@ -484,7 +1287,7 @@ public class EnableTraceLogTranslator extends TreeTranslator {
         return astUtils.createVarDecl(
                 0,
                 List.nil(),
-                generateVariableName("varResult"),
+                generateVariableName("varResult", methodDecl),
                 jcTree.toString(),
                 resultExpr
         );
@@ -516,65 +1319,101 @@ public class EnableTraceLogTranslator extends TreeTranslator {
         String pattern = methodDecl.getName().toString() + "{out: {result: {}}}";
         JCTree.JCStatement newReturn = null;
         JCTree.JCVariableDecl methodResultVarDecl = null;
-        JCTree.JCStatement logReturnLineNumberStatement = null;
+        JCTree.JCStatement returnLineNumberStatement = null;
         if(!(returnedExpr instanceof JCTree.JCIdent) && !(returnedExpr instanceof JCTree.JCLiteral)) {
             if(!(returnedExpr instanceof JCTree.JCArrayAccess)) {
                 methodResultVarDecl = generateMethodResultVariable(returnedExpr, methodDecl);
                 newReturn = getNewJCReturn(methodResultVarDecl);
             }
-            logReturnLineNumberStatement = astUtils.createMethodInvocationExpressionStatement(
-                    loggerName + ".info",
-                    new ArrayList<JCTree.JCExpression>() {
-                        {
-                            add(
-                                    astUtils.createLiteral(
-                                            "debug" + ":" + methodDecl.getName().toString() + "{exceptions or errors may occur at return-statement's line number: " + lineMap.getLineNumber(jcReturn.getStartPosition()) + "}"
-                                    )
-                            );
-                        }
-                    }
+        }
+        /* the line number is only logged if the returned expression throws */
+        if(!(returnedExpr instanceof JCTree.JCIdent) && !(returnedExpr instanceof JCTree.JCLiteral) && curLineName != null) {
+            returnLineNumberStatement = astUtils.createAssignStatement(
+                    astUtils.createIdent(curLineName),
+                    astUtils.createLiteral((int)lineMap.getLineNumber(jcReturn.getStartPosition()))
             );
         }
         JCTree.JCVariableDecl finalMethodResultVarDecl = methodResultVarDecl;
-        JCTree.JCStatement logMethodResultStatement = astUtils.createMethodInvocationExpressionStatement(
-                loggerName + ".info",
+        JCTree.JCStatement logMethodResultStatement = generateTraceStatement(
+                methodDecl,
+                TracePhaseEnum.OUT,
+                pattern,
                 new ArrayList<JCTree.JCExpression>() {
                     {
-                        add(!enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("") ?
-                                astUtils.createBinaryExpression(astUtils.createIdent(curReqIdName), JCTree.Tag.PLUS, astUtils.createBinaryExpression(astUtils.createLiteral(":"), JCTree.Tag.PLUS, astUtils.createLiteral(pattern))) :
-                                astUtils.createLiteral(pattern)
-                        );
                         add(finalMethodResultVarDecl == null ? returnedExpr : astUtils.createIdent(finalMethodResultVarDecl.getName().toString()));
                     }
+                },
+                new ArrayList<Type>() {
+                    {
+                        add(methodDecl.getReturnType().type);
+                    }
                 }
         );
         JCTree.JCStatement logPartBlock = astUtils.createBlock(
-                logReturnLineNumberStatement != null ? List.of(logReturnLineNumberStatement) : List.nil(),
+                returnLineNumberStatement != null ? List.of(returnLineNumberStatement) : List.nil(),
                 methodResultVarDecl != null ? List.of(methodResultVarDecl) : List.nil(),
                 logMethodResultStatement != null ? List.of(logMethodResultStatement) : List.nil(),
                 newReturn != null ? List.of(newReturn) : List.of(jcReturn)
         );
-        JCTree.JCExpression switchIfCond = astUtils.createBinaryExpression(
-                enableMethodLevelSwitchSet.contains(methodDecl.getName().toString()) ?
-                        astUtils.createBinaryExpression(astUtils.createIdent(methodLevelSwitchKeyMap.get(methodDecl.getName().toString())), JCTree.Tag.EQ, astUtils.createLiteral(1)) :
-                        astUtils.createLiteral(true),
-                JCTree.Tag.AND,
-                (Boolean)enableTraceLogMembersMap.get(ConstantsEnum.ENABLE_CLASS_LEVEL_SWITCH.getValue()) ?
-                        astUtils.createBinaryExpression(astUtils.createIdent(classLevelSwitchKey), JCTree.Tag.EQ, astUtils.createLiteral(1)) :
-                        astUtils.createLiteral(true)
-        );
         JCTree.JCStatement switchIfStatement = astUtils.createIfStatement(
-                switchIfCond,
+                astUtils.createIdent(curTracedName),
                 logPartBlock,
                 jcReturn
         );
         return astUtils.createBlock(List.of(switchIfStatement));
     }
 
+    /**
+     * Generate the compile-time constant format string of a log statement. The request id (if any) is passed as the
+     * first argument to fill the leading "{}" instead of being concatenated with the pattern at runtime
+     *
+     * @param pattern the pattern of method's parameters or result
+     * @return
+     */
+    private String generateLogPattern(String pattern) {
+        if(enableTraceLogMembersMap.get(ConstantsEnum.REQ_ID_NAME.getValue()).equals("")) {
+            return pattern;
+        }
+        return "{}:" + pattern;
+    }
+
+    /**
+     * Generate the name of a field, e.g. "log_Dog_0"
+     *
+     * @param prefix
+     * @return
+     */
     private String generateVariableName(String prefix) {
+        return generateVariableName(prefix, classNamespace);
+    }
+
+    /**
+     * Generate the name of a local variable of the method, e.g. "traced_bark_0"
+     *
+     * @param prefix
+     * @param methodDecl
+     * @return
+     */
+    private String generateVariableName(String prefix, JCTree.JCMethodDecl methodDecl) {
+        return generateVariableName(prefix, methodDecl.getName().toString());
+    }
+
+    /**
+     * Generate a name from the prefix, the namespace (the simple name of class or the name of method) and an ordinal in
+     * the namespace, so the same source always gets the same names. The names which already exist in the class are skipped
+     *
+     * @param prefix
+     * @param namespace
+     * @return
+     */
+    private String generateVariableName(String prefix, String namespace) {
+        if(existingNameSet == null) {
+            existingNameSet = collectExistingNames(classDecl);
+        }
         while(true) {
-            String result = prefix + "_" + prefixNum + "_" + UUID.randomUUID().toString().replace("-", "");
-            if(!newVariableNameSet.contains(result)) {
+            int ordinal = namespaceOrdinalMap.merge(namespace, 1, Integer::sum) - 1;
+            String result = prefix + "_" + namespace + "_" + ordinal;
+            if(!existingNameSet.contains(result) && !newVariableNameSet.contains(result)) {
                 newVariableNameSet.add(result);
                 return result;
             }
@@ -582,41 +1421,42 @@ public class EnableTraceLogTranslator extends TreeTranslator {
     }
 
     /**
-     * Check if the method is in the outmost class
+     * Collect all the names declared or referred in the class in a single pass
      *
-     * @param jcMethodDecl
+     * @param jcClassDecl
      * @return
      */
-    private boolean isMethodWithinFirstClass(JCTree.JCMethodDecl jcMethodDecl) {
-        int methodStartPosition = jcMethodDecl.getEndPosition(null);
-        if(classDecl == null || endPosition.size() == 0) {
-            return true;
-        }
+    private Set<String> collectExistingNames(JCTree.JCClassDecl jcClassDecl) {
+        Set<String> result = new HashSet<>();
+        jcClassDecl.accept(new TreeScanner() {
+            @Override
+            public void visitIdent(JCTree.JCIdent jcIdent) {
+                result.add(jcIdent.getName().toString());
+            }
 
-        //Check if the start position of method isn't in the range of class position
-        if(methodStartPosition > endPosition.get(endPosition.size() - 1)) {
-            endPosition.remove(endPosition.size() - 1);
-            return true;
-        }else{
-            return false;
-        }
+            @Override
+            public void visitSelect(JCTree.JCFieldAccess jcFieldAccess) {
+                result.add(jcFieldAccess.getIdentifier().toString());
+                super.visitSelect(jcFieldAccess);
+            }
+
+            @Override
+            public void visitVarDef(JCTree.JCVariableDecl jcVariableDecl) {
+                result.add(jcVariableDecl.getName().toString());
+                super.visitVarDef(jcVariableDecl);
+            }
+        });
+        return result;
     }
 
     /**
-     * Get class "end position" in AST recursively (Currently the "end position" means the start position of its last member)
+     * Check if the method is declared by the outmost class (rather than its nested, local or anonymous classes) by its
+     * symbol, the generated methods and the methods of local or anonymous classes have not been entered yet
      *
-     * @param jcClassDecl
+     * @param jcMethodDecl
      * @return
      */
-    private int getClassEndPosition(JCTree.JCClassDecl jcClassDecl) {
-        List<JCTree> jcTreeList = jcClassDecl.getMembers();
-        int listLength = jcTreeList.size();
-
-        //Check if the last member is a class declaration and then call itself recursively
-        if(jcTreeList.get(listLength - 1).getKind() == Tree.Kind.CLASS) {
-            return getClassEndPosition((JCTree.JCClassDecl)jcTreeList.get(listLength - 1));
-        }
-
-        return jcTreeList.get(listLength - 1).getEndPosition(null);
+    private boolean isMethodOfFirstClass(JCTree.JCMethodDecl jcMethodDecl) {
+        return classDecl != null && jcMethodDecl.sym != null && jcMethodDecl.sym.owner == classDecl.sym;
     }
 }
@@ -0,0 +1,134 @@
+package com.yuangancheng.logtool.ast;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.jvm.ClassReader;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
+import com.sun.tools.javac.util.Names;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Generate the appender of a class annotated with @TraceAppender, e.g. for class Order { long id; Item item; }:
+ * public void appendTraceTo(StringBuilder builder, TraceArgRenderer renderer) {
+ *     builder.append("Order{id=");
+ *     builder.append(this.id);
+ *     builder.append(", item=");
+ *     renderer.render(this.item, builder);
+ *     builder.append("}");
+ * }
+ * and make the class implement TraceAppendable.
+ */
+public class TraceAppenderGenerator {
+
+    private static final String METHOD_NAME = "appendTraceTo";
+    private static final String BUILDER_NAME = "builder";
+    private static final String RENDERER_NAME = "renderer";
+
+    private final Messager messager;
+    private final TreeMaker treeMaker;
+    private final ASTUtils astUtils;
+
+    public TraceAppenderGenerator(Messager messager, TreeMaker treeMaker, Names names, Symtab symtab, ClassReader classReader) {
+        this.messager = messager;
+        this.treeMaker = treeMaker;
+        this.astUtils = new ASTUtils(names, symtab, classReader, treeMaker);
+    }
+
+    /**
+     * @param classDecl the class annotated with @TraceAppender
+     */
+    public void generate(JCTree.JCClassDecl classDecl) {
+        if((classDecl.getModifiers().flags & (Flags.INTERFACE | Flags.ENUM)) != 0) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + classDecl.sym.flatname.toString() + "@TraceAppender: Only a class can have a generated appender.");
+            return;
+        }
+        for(JCTree member : classDecl.getMembers()) {
+            if(member instanceof JCTree.JCMethodDecl && ((JCTree.JCMethodDecl)member).getName().contentEquals(METHOD_NAME)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Error: " + classDecl.sym.flatname.toString() + "@TraceAppender: The method " + METHOD_NAME + " has been declared.");
+                return;
+            }
+        }
+        this.treeMaker.pos = classDecl.pos;
+
+        ListBuffer<JCTree.JCStatement> statements = new ListBuffer<>();
+        /* the constant parts between the fields are merged into a single append */
+        StringBuilder constantPart = new StringBuilder(classDecl.getSimpleName().toString()).append('{');
+        boolean first = true;
+        for(JCTree member : classDecl.getMembers()) {
+            if(!(member instanceof JCTree.JCVariableDecl)) {
+                continue;
+            }
+            JCTree.JCVariableDecl fieldDecl = (JCTree.JCVariableDecl)member;
+            if((fieldDecl.getModifiers().flags & Flags.STATIC) != 0 || isNoTrace(fieldDecl)) {
+                continue;
+            }
+            constantPart.append(first ? "" : ", ").append(fieldDecl.getName().toString()).append('=');
+            first = false;
+            statements.append(generateAppendStatement(astUtils.createLiteral(constantPart.toString())));
+            constantPart.setLength(0);
+            JCTree.JCExpression fieldAccess = astUtils.createFieldAccess(astUtils.createIdent("this"), fieldDecl.getName().toString());
+            if(fieldDecl.vartype instanceof JCTree.JCPrimitiveTypeTree) {
+                statements.append(generateAppendStatement(fieldAccess));
+            }else{
+                statements.append(astUtils.createMethodInvocationExpressionStatement(
+                        RENDERER_NAME + ".render",
+                        new ArrayList<JCTree.JCExpression>() {
+                            {
+                                add(fieldAccess);
+                                add(astUtils.createIdent(BUILDER_NAME));
+                            }
+                        }
+                ));
+            }
+        }
+        statements.append(generateAppendStatement(astUtils.createLiteral(constantPart.append('}').toString())));
+
+        JCTree.JCMethodDecl appenderDecl = astUtils.createMethodDecl(
+                Flags.PUBLIC,
+                List.nil(),
+                "void",
+                null,
+                METHOD_NAME,
+                List.nil(),
+                new LinkedHashMap<String, String>() {
+                    {
+                        put(BUILDER_NAME, "java.lang.StringBuilder");
+                        put(RENDERER_NAME, "com.yuangancheng.logtool.runtime.TraceArgRenderer");
+                    }
+                },
+                null,
+                new ArrayList<>(),
+                astUtils.createBlock(statements.toList())
+        );
+        classDecl.implementing = classDecl.implementing.append(astUtils.createCompleteFieldAccess("com.yuangancheng.logtool.runtime.TraceAppendable"));
+        classDecl.defs = classDecl.defs.append(appenderDecl);
+    }
+
+    private JCTree.JCStatement generateAppendStatement(JCTree.JCExpression value) {
+        return astUtils.createMethodInvocationExpressionStatement(
+                BUILDER_NAME + ".append",
+                new ArrayList<JCTree.JCExpression>() {
+                    {
+                        add(value);
+                    }
+                }
+        );
+    }
+
+    private boolean isNoTrace(JCTree.JCVariableDecl fieldDecl) {
+        for(JCTree.JCAnnotation jcAnnotation : fieldDecl.getModifiers().getAnnotations()) {
+            if(TreeInfo.name(jcAnnotation.getAnnotationType()).toString().equals("NoTrace")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -9,6 +9,21 @@ public enum ConstantsEnum {
     ENABLE_CLASS_LEVEL_SWITCH("enableClassLevelSwitch"),
     ENABLE_METHOD_LEVEL_SWITCH("enableMethodLevelSwitch"),
     SWITCH_KEY("switchKey"),
+    LEVEL("level"),
+    ASYNC("async"),
+    OVERFLOW_POLICY("overflowPolicy"),
+    SNAPSHOT_ARGS("snapshotArgs"),
+    SINK("sink"),
+    FORMAT("format"),
+    SAMPLE_RATE("sampleRate"),
+    MAX_PER_SECOND("maxPerSecond"),
+    LATENCY("latency"),
+    STRATEGY("strategy"),
+    PARAMS("params"),
+    EXCLUDE("exclude"),
+    LOG_RESULT("logResult"),
+    OPTION_MODE("logtool.mode"),
+    OPTION_MIN_LEVEL("logtool.minLevel"),
     VAR_CLASS_SWITCH_KEY("varClassSwitchKey"),
     VAR_METHOD_SWITCH_KEY("varMethodSwitchKey");
 
@@ -0,0 +1,12 @@
+package com.yuangancheng.logtool.enums;
+
+/**
+ * The strategies of instrumenting the exits of a traced method
+ */
+public enum InstrumentStrategyEnum {
+    /* log the result at every return statement, the generated code grows with the number of return statements */
+    PER_RETURN,
+    /* move the original body into a private "methodName$logtool$inner" method and log its result at the only exit of
+       the traced method, the generated code has a constant size */
+    SINGLE_EXIT
+}
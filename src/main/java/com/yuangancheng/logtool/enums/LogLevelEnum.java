@@ -0,0 +1,28 @@
+package com.yuangancheng.logtool.enums;
+
+/**
+ * The log levels which the generated code can log at. Each level maps to a pair of org.slf4j.Logger methods.
+ */
+public enum LogLevelEnum {
+    TRACE("trace", "isTraceEnabled"),
+    DEBUG("debug", "isDebugEnabled"),
+    INFO("info", "isInfoEnabled"),
+    WARN("warn", "isWarnEnabled"),
+    ERROR("error", "isErrorEnabled");
+
+    private String logMethodName;
+    private String enabledMethodName;
+
+    LogLevelEnum(String logMethodName, String enabledMethodName) {
+        this.logMethodName = logMethodName;
+        this.enabledMethodName = enabledMethodName;
+    }
+
+    public String getLogMethodName() {
+        return logMethodName;
+    }
+
+    public String getEnabledMethodName() {
+        return enabledMethodName;
+    }
+}
@@ -0,0 +1,13 @@
+package com.yuangancheng.logtool.enums;
+
+/**
+ * The policies of publishing a trace event into a full (or nearly full) ring buffer in async mode
+ */
+public enum OverflowPolicyEnum {
+    /* drop the event */
+    DROP,
+    /* wait until there is free space */
+    BLOCK,
+    /* only accept a part of the events when the buffer is nearly full and drop the others */
+    SAMPLE
+}
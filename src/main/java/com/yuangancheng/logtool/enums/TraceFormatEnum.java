@@ -0,0 +1,11 @@
+package com.yuangancheng.logtool.enums;
+
+/**
+ * The formats of the lines of traced methods
+ */
+public enum TraceFormatEnum {
+    /* e.g. bark{in: {times: 3}} */
+    TEXT,
+    /* a JSON object per line, e.g. {"timestamp":1600163340123,"thread":"main","level":"INFO","class":"com.example.Dog","method":"bark","phase":"in","params":{"times":3}} */
+    JSON
+}
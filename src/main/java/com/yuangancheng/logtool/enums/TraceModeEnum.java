@@ -0,0 +1,13 @@
+package com.yuangancheng.logtool.enums;
+
+/**
+ * The compile-time modes of the processor, chosen by the javac option "-Alogtool.mode=off|switch|always"
+ */
+public enum TraceModeEnum {
+    /* generate nothing, the classes are compiled as if they were not annotated */
+    OFF,
+    /* generate the tracing code guarded by the class/method-level switches (default) */
+    SWITCH,
+    /* generate the tracing code without the class/method-level switches */
+    ALWAYS
+}
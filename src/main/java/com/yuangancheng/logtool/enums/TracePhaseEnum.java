@@ -0,0 +1,13 @@
+package com.yuangancheng.logtool.enums;
+
+/**
+ * The phases of a traced method's invocation
+ */
+public enum TracePhaseEnum {
+    /* the parameters are traced when entering the method */
+    IN,
+    /* the result is traced when returning from the method */
+    OUT,
+    /* the exception and the parameters are traced when the method throws */
+    ERROR
+}
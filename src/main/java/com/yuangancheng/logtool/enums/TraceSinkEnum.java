@@ -0,0 +1,13 @@
+package com.yuangancheng.logtool.enums;
+
+/**
+ * The outputs of traced methods
+ */
+public enum TraceSinkEnum {
+    /* log through org.slf4j.Logger (synchronously, or asynchronously in async mode) */
+    SLF4J,
+    /* append compact binary events to memory-mapped segment files, see BinaryTraceSink */
+    BINARY,
+    /* append the text lines to a file through a FileChannel without creating a String per line, see FileTraceSink */
+    FILE
+}
@@ -9,15 +9,23 @@ import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.Names;
 import com.yuangancheng.logtool.annotation.EnableTraceLog;
+import com.yuangancheng.logtool.annotation.TraceAppender;
 import com.yuangancheng.logtool.annotation.TraceLog;
 import com.yuangancheng.logtool.ast.EnableTraceLogTranslator;
+import com.yuangancheng.logtool.ast.TraceAppenderGenerator;
 import com.yuangancheng.logtool.enums.ConstantsEnum;
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+import com.yuangancheng.logtool.enums.TraceModeEnum;
 
 import javax.annotation.processing.*;
 import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic;
+import java.lang.reflect.Field;
 import java.util.*;
 
 /**
@@ -32,19 +40,79 @@ public class EnableTraceLogProcessor extends AbstractProcessor {
     private Names names;
     private Symtab symtab;
     private ClassReader classReader;
-    private int dummy = 0;
-    private int prefixNum = 0;
+    private TraceModeEnum mode = TraceModeEnum.SWITCH;
+    private LogLevelEnum minLevel = LogLevelEnum.TRACE;
+    /* the classes which have been modified by this processor, so a class is never modified twice in later rounds */
+    private final Set<String> processedElementSet = new HashSet<>();
+    private final Set<String> processedAppenderElementSet = new HashSet<>();
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
         super.init(processingEnv);
         this.messager = processingEnv.getMessager();
-        this.trees = JavacTrees.instance(processingEnv);
-        Context context = ((JavacProcessingEnvironment)processingEnv).getContext();
+        JavacProcessingEnvironment javacProcessingEnv = getJavacProcessingEnvironment(processingEnv);
+        this.trees = JavacTrees.instance(javacProcessingEnv);
+        Context context = javacProcessingEnv.getContext();
         this.treeMaker = TreeMaker.instance(context);
         this.names = Names.instance(context);
         this.symtab = Symtab.instance(context);
         this.classReader = ClassReader.instance(context);
+
+        /* read the processor options, e.g. -Alogtool.mode=off -Alogtool.minLevel=info */
+        String modeOption = processingEnv.getOptions().get(ConstantsEnum.OPTION_MODE.getValue());
+        if(modeOption != null) {
+            try {
+                this.mode = TraceModeEnum.valueOf(modeOption.trim().toUpperCase(Locale.ROOT));
+            }catch(IllegalArgumentException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Error: -A" + ConstantsEnum.OPTION_MODE.getValue() + "=" + modeOption + ": The mode must be one of off, switch and always.");
+            }
+        }
+        String minLevelOption = processingEnv.getOptions().get(ConstantsEnum.OPTION_MIN_LEVEL.getValue());
+        if(minLevelOption != null) {
+            try {
+                this.minLevel = LogLevelEnum.valueOf(minLevelOption.trim().toUpperCase(Locale.ROOT));
+            }catch(IllegalArgumentException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Error: -A" + ConstantsEnum.OPTION_MIN_LEVEL.getValue() + "=" + minLevelOption + ": The min level must be one of trace, debug, info, warn and error.");
+            }
+        }
+    }
+
+    /**
+     * Get the javac environment wrapped by a build tool, e.g. the incremental processing environment of Gradle, whose
+     * delegate is the javac one
+     *
+     * @param processingEnv
+     * @return
+     */
+    private static JavacProcessingEnvironment getJavacProcessingEnvironment(ProcessingEnvironment processingEnv) {
+        Object environment = processingEnv;
+        while(!(environment instanceof JavacProcessingEnvironment)) {
+            Object delegate = null;
+            for(Class<?> clazz = environment.getClass(); clazz != null && delegate == null; clazz = clazz.getSuperclass()) {
+                try {
+                    Field field = clazz.getDeclaredField("delegate");
+                    field.setAccessible(true);
+                    delegate = field.get(environment);
+                }catch(NoSuchFieldException | IllegalAccessException e) {
+                    /* look up the superclass */
+                }
+            }
+            if(!(delegate instanceof ProcessingEnvironment)) {
+                throw new IllegalArgumentException("The logtool's annotation processor only runs on javac, but the processing environment is " + processingEnv.getClass().getName());
+            }
+            environment = delegate;
+        }
+        return (JavacProcessingEnvironment)environment;
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return new HashSet<String>() {
+            {
+                add(ConstantsEnum.OPTION_MODE.getValue());
+                add(ConstantsEnum.OPTION_MIN_LEVEL.getValue());
+            }
+        };
     }
 
     @Override
@@ -52,6 +120,7 @@ public class EnableTraceLogProcessor extends AbstractProcessor {
         return new HashSet<String>() {
             {
                 add("com.yuangancheng.logtool.annotation.EnableTraceLog");
+                add("com.yuangancheng.logtool.annotation.TraceAppender");
             }
         };
     }
@@ -69,29 +138,23 @@ public class EnableTraceLogProcessor extends AbstractProcessor {
             messager.printMessage(Diagnostic.Kind.ERROR, "The logtool's annotation processor has not been initialized. Please try it again.");
         }
 
-        /* Important!!! Currently count the loops for detecting unknown error to avoid infinite loop which occurs sometimes in Windows 7 (IntelliJ IDEA 'build project' option) */
-        if(dummy == 0) {
-            String count = System.getProperty("com.yuangancheng.logtool.dummy");
-            if(count == null) {
-                System.setProperty("com.yuangancheng.logtool.dummy", "1");
-            }else{
-                if(Integer.parseInt(count) > 2) {
-                    messager.printMessage(Diagnostic.Kind.WARNING, "Encountered an infinite annotation processing loop. Please use 'Rebuild Project' option instead of 'Build Project' in IntelliJ IDEA to enable @TraceLog.");
-                    return true;
-                }
-                System.setProperty("com.yuangancheng.logtool.dummy", String.valueOf(Integer.parseInt(count) + 1));
-            }
-            dummy++;
+        /* the annotations are kept in the source, but nothing is generated */
+        if(mode == TraceModeEnum.OFF) {
+            return true;
         }
 
         Set<? extends Element> elementSet = roundEnv.getElementsAnnotatedWith(EnableTraceLog.class);
         for(Element element : elementSet) {
+            /* the state is kept per element (instead of a JVM-global counter), so the processor can be isolating-incremental */
+            JCTree classTree = trees.getTree(element);
+            if(classTree == null || !processedElementSet.add(((TypeElement)element).getQualifiedName().toString())) {
+                continue;
+            }
             EnableTraceLog enableTraceLog = element.getAnnotation(EnableTraceLog.class);
             messager.printMessage(Diagnostic.Kind.NOTE, "TraceLog: modifying class: " + element.toString());
-            JCTree classTree = trees.getTree(element);
             List<? extends Element> memberList = element.getEnclosedElements();
             List<Object> list = processClassMembers(enableTraceLog, memberList);
-            if(((ArrayList<String>)list.get(1)).size() > 0) {
+            if(((Set<Element>)list.get(1)).size() > 0) {
                 EnableTraceLogTranslator classTranslator = new EnableTraceLogTranslator(
                         messager,
                         treeMaker,
@@ -99,13 +162,24 @@ public class EnableTraceLogProcessor extends AbstractProcessor {
                         symtab,
                         classReader,
                         (Map<String, Object>)list.get(0),
-                        (ArrayList<String>)list.get(1),
+                        (Set<Element>)list.get(1),
                         trees.getPath(element).getCompilationUnit().getLineMap(),
-                        String.valueOf(prefixNum++)
+                        element.getSimpleName().toString()
                 );
                 classTree.accept(classTranslator);
             }
         }
+
+        /* generate the appenders of the classes rendered as arguments */
+        TraceAppenderGenerator appenderGenerator = new TraceAppenderGenerator(messager, treeMaker, names, symtab, classReader);
+        for(Element element : roundEnv.getElementsAnnotatedWith(TraceAppender.class)) {
+            JCTree classTree = trees.getTree(element);
+            if(!(classTree instanceof JCTree.JCClassDecl) || !processedAppenderElementSet.add(((TypeElement)element).getQualifiedName().toString())) {
+                continue;
+            }
+            messager.printMessage(Diagnostic.Kind.NOTE, "TraceLog: generating appender: " + element.toString());
+            appenderGenerator.generate((JCTree.JCClassDecl)classTree);
+        }
         return true;
     }
 
@@ -119,24 +193,59 @@ public class EnableTraceLogProcessor extends AbstractProcessor {
     private List<Object> processClassMembers(EnableTraceLog enableTraceLog, List<? extends Element> memberList) {
         List<Object> result = new ArrayList<>();
         Map<String, Object> enableTraceLogMembersMap = new HashMap<>();
-        List<String> methodListWithAnnotation = new ArrayList<>();
+        Set<Element> methodSetWithAnnotation = new HashSet<>();
 
         //Generate key-value pair map
         enableTraceLogMembersMap.put(ConstantsEnum.REQ_ID_NAME.getValue(), enableTraceLog.reqIdName());
         enableTraceLogMembersMap.put(ConstantsEnum.ENABLE_CLASS_LEVEL_SWITCH.getValue(), enableTraceLog.enableClassLevelSwitch());
         enableTraceLogMembersMap.put(ConstantsEnum.SWITCH_KEY.getValue(), enableTraceLog.switchKey());
+        enableTraceLogMembersMap.put(ConstantsEnum.LEVEL.getValue(), enableTraceLog.level());
+        enableTraceLogMembersMap.put(ConstantsEnum.ASYNC.getValue(), enableTraceLog.async());
+        enableTraceLogMembersMap.put(ConstantsEnum.OVERFLOW_POLICY.getValue(), enableTraceLog.overflowPolicy());
+        enableTraceLogMembersMap.put(ConstantsEnum.SNAPSHOT_ARGS.getValue(), enableTraceLog.snapshotArgs());
+        enableTraceLogMembersMap.put(ConstantsEnum.SINK.getValue(), enableTraceLog.sink());
+        enableTraceLogMembersMap.put(ConstantsEnum.FORMAT.getValue(), enableTraceLog.format());
+        enableTraceLogMembersMap.put(ConstantsEnum.MAX_PER_SECOND.getValue(), enableTraceLog.maxPerSecond());
+        enableTraceLogMembersMap.put(ConstantsEnum.LATENCY.getValue(), enableTraceLog.latency());
+        enableTraceLogMembersMap.put(ConstantsEnum.STRATEGY.getValue(), enableTraceLog.strategy());
+        enableTraceLogMembersMap.put(ConstantsEnum.OPTION_MODE.getValue(), mode);
 
-        //Generate list of methods with TraceLog annotation
+        //Generate set of methods with TraceLog annotation
         memberList.forEach(member -> {
             TraceLog traceLog = member.getAnnotation(TraceLog.class);
             if(traceLog == null) {
                 return;
             }
-            methodListWithAnnotation.add(member.getSimpleName().toString());
+            /* the methods logging below the min level are not traced at all */
+            if(getMethodLevel(enableTraceLog, member).ordinal() < minLevel.ordinal()) {
+                return;
+            }
+            methodSetWithAnnotation.add(member);
         });
 
         result.add(enableTraceLogMembersMap);
-        result.add(methodListWithAnnotation);
+        result.add(methodSetWithAnnotation);
         return result;
     }
+
+    /**
+     * Get the log level of a method, the level of @TraceLog overrides the one of @EnableTraceLog only if it is specified explicitly
+     *
+     * @param enableTraceLog
+     * @param member the method with TraceLog annotation
+     * @return
+     */
+    private LogLevelEnum getMethodLevel(EnableTraceLog enableTraceLog, Element member) {
+        for(AnnotationMirror annotationMirror : member.getAnnotationMirrors()) {
+            if(!annotationMirror.getAnnotationType().toString().equals(TraceLog.class.getName())) {
+                continue;
+            }
+            for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotationMirror.getElementValues().entrySet()) {
+                if(entry.getKey().getSimpleName().contentEquals(ConstantsEnum.LEVEL.getValue())) {
+                    return LogLevelEnum.valueOf(entry.getValue().getValue().toString());
+                }
+            }
+        }
+        return enableTraceLog.level();
+    }
 }
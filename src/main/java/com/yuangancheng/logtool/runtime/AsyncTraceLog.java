@@ -0,0 +1,232 @@
+package com.yuangancheng.logtool.runtime;
+
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+import com.yuangancheng.logtool.enums.OverflowPolicyEnum;
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The entry of async mode (@EnableTraceLog(async = true)). The generated code publishes its log statements into a
+ * preallocated ring buffer and a background consumer thread formats them by TraceArgFormatter and writes them
+ * through SLF4J, so toString() of the arguments is never called on the traced thread, and not at all if the event is filtered out by its level.
+ * The capacity of the ring buffer can be configured by the system property "logtool.async.bufferSize".
+ * The time of publishing an event is put into MDC with the key "logtool.timestamp" while it is written.
+ */
+public final class AsyncTraceLog {
+
+    public static final String TIMESTAMP_MDC_KEY = "logtool.timestamp";
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final long IDLE_PARK_NANOS = 100_000L;
+    /* in SAMPLE policy, only 1/SAMPLE_RATIO of the events are accepted when the buffer is above its high watermark */
+    private static final int SAMPLE_RATIO = 8;
+    private static final LongAdder droppedCount = new LongAdder();
+    private static final LongAdder publishedCount = new LongAdder();
+    private static final LongAdder failedCount = new LongAdder();
+    /* the thread within consumeAvailable() (the consumer thread or the shutdown hook), or null */
+    private static volatile Thread consumingThread;
+
+    private AsyncTraceLog() {
+    }
+
+    /* lazily initialized holder, so that the consumer thread only starts when async mode is actually used */
+    private static final class Holder {
+        private static final TraceEventRingBuffer RING_BUFFER = new TraceEventRingBuffer(Integer.getInteger("logtool.async.bufferSize", DEFAULT_BUFFER_SIZE));
+        private static final int HIGH_WATERMARK = RING_BUFFER.capacity() - RING_BUFFER.capacity() / 4;
+
+        static {
+            Thread consumer = new Thread(AsyncTraceLog::consume, "logtool-async-trace-log");
+            consumer.setDaemon(true);
+            consumer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(AsyncTraceLog::drain, "logtool-async-trace-log-shutdown"));
+        }
+    }
+
+    /**
+     * Claim a slot of the ring buffer for a log statement of a traced method. The generated code puts the arguments
+     * into the returned slot and then publishes it, e.g. publish(claim(...).putInt(id).putObject(name)).
+     *
+     * @param logger the logger of traced class
+     * @param level the log level
+     * @param policy what to do when the ring buffer is full
+     * @param snapshotArgs whether to keep snapshots of the mutable arguments instead of their references
+     * @param pattern the constant format string
+     * @return the arguments of the claimed slot (their references are kept until the event is written), or the
+     * arguments of current thread which are discarded by publish() if the event is dropped
+     */
+    public static TraceArgs claim(Logger logger, LogLevelEnum level, OverflowPolicyEnum policy, boolean snapshotArgs, String pattern) {
+        return claim(logger, level, policy, snapshotArgs, false, pattern);
+    }
+
+    /**
+     * Same as claim(logger, level, policy, snapshotArgs, pattern)
+     *
+     * @param json whether the pattern is in JSON format (see TraceArgFormatter)
+     */
+    public static TraceArgs claim(Logger logger, LogLevelEnum level, OverflowPolicyEnum policy, boolean snapshotArgs, boolean json, String pattern) {
+        TraceEventRingBuffer ringBuffer = Holder.RING_BUFFER;
+        if(policy == OverflowPolicyEnum.SAMPLE && ringBuffer.size() >= Holder.HIGH_WATERMARK
+                && ThreadLocalRandom.current().nextInt(SAMPLE_RATIO) != 0) {
+            droppedCount.increment();
+            return TraceArgs.acquire();
+        }
+        TraceEvent event = ringBuffer.tryClaim();
+        while(event == null) {
+            /*
+              the consuming thread never waits for a slot, which only it can free, e.g. when an appender or toString()
+              of an argument calls another traced method while the events are written
+             */
+            if(policy != OverflowPolicyEnum.BLOCK || Thread.currentThread() == consumingThread) {
+                droppedCount.increment();
+                return TraceArgs.acquire();
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+            event = ringBuffer.tryClaim();
+        }
+        event.logger = logger;
+        event.level = level;
+        event.snapshotArgs = snapshotArgs;
+        event.json = json;
+        event.thread = json ? Thread.currentThread() : null;
+        event.pattern = pattern;
+        return event.args;
+    }
+
+    /**
+     * Publish the slot claimed by claim()
+     *
+     * @param args the arguments returned by claim()
+     */
+    public static void publish(TraceArgs args) {
+        TraceEvent event = args.event;
+        if(event == null) {
+            args.release();
+            return;
+        }
+        if(event.snapshotArgs) {
+            TraceArgSnapshot.snapshot(args);
+        }
+        event.timestamp = System.currentTimeMillis();
+        Holder.RING_BUFFER.publish(event);
+        publishedCount.increment();
+    }
+
+    /**
+     * @return the number of events dropped because of a full ring buffer (or sampled out by SAMPLE policy, or
+     * published by the consuming thread itself in BLOCK policy)
+     */
+    public static long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return the number of events published into the ring buffer
+     */
+    public static long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * @return the number of events failed to be written, e.g. by a failure of the logger or of toString()
+     */
+    public static long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    private static void consume() {
+        while(true) {
+            if(!consumeAvailable()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static void drain() {
+        while(consumeAvailable()) {
+            //write all events published before shutdown
+        }
+    }
+
+    /**
+     * @return true if any event is consumed
+     */
+    private static synchronized boolean consumeAvailable() {
+        TraceEventRingBuffer ringBuffer = Holder.RING_BUFFER;
+        boolean consumed = false;
+        TraceEvent event;
+        consumingThread = Thread.currentThread();
+        try {
+            while((event = ringBuffer.poll()) != null) {
+                try {
+                    write(event);
+                }catch(Throwable e) {
+                    //a failure of rendering (e.g. a StackOverflowError of toString()) must not stop the consumer thread
+                    failedCount.increment();
+                }finally{
+                    ringBuffer.release(event);
+                }
+                consumed = true;
+            }
+        }finally{
+            consumingThread = null;
+        }
+        return consumed;
+    }
+
+    private static void write(TraceEvent event) {
+        Logger logger = event.logger;
+
+        /* the level may be disabled after publishing, then the arguments are never rendered */
+        if(!isEnabled(logger, event.level)) {
+            return;
+        }
+        MDC.put(TIMESTAMP_MDC_KEY, String.valueOf(event.timestamp));
+        /* the arguments are only rendered here on the consumer thread, the one beyond the pattern is the thrown exception */
+        String message = event.json ? TraceArgFormatter.formatJson(event.pattern, event.args, event.timestamp, event.thread.getName()) : TraceArgFormatter.format(event.pattern, event.args);
+        TraceArgs args = event.args;
+        Throwable throwable = null;
+        if(args.size > 0 && args.kinds[args.size - 1] == TraceArgs.KIND_OBJECT && args.objects[args.size - 1] instanceof Throwable
+                && args.size > TraceArgFormatter.countPlaceholders(event.pattern)) {
+            throwable = (Throwable)args.objects[args.size - 1];
+        }
+        switch(event.level) {
+            case TRACE:
+                logger.trace(message, throwable);
+                break;
+            case DEBUG:
+                logger.debug(message, throwable);
+                break;
+            case INFO:
+                logger.info(message, throwable);
+                break;
+            case WARN:
+                logger.warn(message, throwable);
+                break;
+            case ERROR:
+                logger.error(message, throwable);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static boolean isEnabled(Logger logger, LogLevelEnum level) {
+        switch(level) {
+            case TRACE:
+                return logger.isTraceEnabled();
+            case DEBUG:
+                return logger.isDebugEnabled();
+            case INFO:
+                return logger.isInfoEnabled();
+            case WARN:
+                return logger.isWarnEnabled();
+            case ERROR:
+                return logger.isErrorEnabled();
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decode the segments written by BinaryTraceSink into the human-readable format, e.g.
+ * "2020-09-17 10:50:00.000 com.example.Dog - reqId:bark{in: {frequency: 1}}"
+ *
+ * Usage: java -cp logtool.jar com.yuangancheng.logtool.runtime.BinaryTraceDecoder <segment file or directory>...
+ */
+public final class BinaryTraceDecoder {
+
+    private final PrintStream out;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    public BinaryTraceDecoder(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0) {
+            System.err.println("Usage: java -cp logtool.jar " + BinaryTraceDecoder.class.getName() + " <segment file or directory>...");
+            System.exit(1);
+        }
+        BinaryTraceDecoder decoder = new BinaryTraceDecoder(System.out);
+        for(String arg : args) {
+            Path path = Paths.get(arg);
+            if(Files.isDirectory(path)) {
+                try(Stream<Path> stream = Files.list(path)) {
+                    for(Path segment : stream.filter(p -> p.getFileName().toString().endsWith(".ltb")).sorted().collect(Collectors.toList())) {
+                        decoder.decode(segment);
+                    }
+                }
+            }else{
+                decoder.decode(path);
+            }
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Decode a segment and print its events
+     *
+     * @param segmentPath the path of segment file
+     * @throws IOException
+     */
+    public void decode(Path segmentPath) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath));
+        if(buffer.remaining() < BinaryTraceFormat.HEADER_SIZE || buffer.getInt() != BinaryTraceFormat.MAGIC) {
+            throw new IOException(segmentPath + " is not a logtool binary trace segment");
+        }
+        byte version = buffer.get();
+        if(version != BinaryTraceFormat.VERSION) {
+            throw new IOException(segmentPath + ": unsupported version " + version);
+        }
+        long baseTime = buffer.getLong();
+        Map<Integer, String[]> methodMap = new HashMap<>();
+        Map<Integer, String> dictionary = new HashMap<>();
+        StringBuilder line = new StringBuilder();
+        while(buffer.hasRemaining()) {
+            byte recordType = buffer.get();
+            if(recordType == BinaryTraceFormat.RECORD_END) {
+                break;
+            }
+            switch(recordType) {
+                case BinaryTraceFormat.RECORD_METHOD: {
+                    int methodId = getVarint(buffer);
+                    String className = getString(buffer);
+                    String methodName = getString(buffer);
+                    int paramCount = getVarint(buffer);
+                    String[] method = new String[paramCount + 2];
+                    method[0] = className;
+                    method[1] = methodName;
+                    for(int i = 0; i < paramCount; i++) {
+                        method[i + 2] = getString(buffer);
+                    }
+                    methodMap.put(methodId, method);
+                    break;
+                }
+                case BinaryTraceFormat.RECORD_STRING: {
+                    int id = getVarint(buffer);
+                    dictionary.put(id, getString(buffer));
+                    break;
+                }
+                case BinaryTraceFormat.RECORD_EVENT: {
+                    String[] method = methodMap.get(getVarint(buffer));
+                    byte phase = buffer.get();
+                    long time = baseTime + getVarlong(buffer);
+                    line.setLength(0);
+                    line.append(dateFormat.format(new Date(time))).append(' ').append(method[0]).append(" - ");
+                    if(buffer.get(buffer.position()) == BinaryTraceFormat.TAG_NULL) {
+                        buffer.get();
+                    }else{
+                        appendArg(buffer, dictionary, line);
+                        line.append(':');
+                    }
+                    int argCount = getVarint(buffer);
+                    line.append(method[1]).append(phase == BinaryTraceFormat.PHASE_IN ? "{in: {" : "{out: {");
+                    for(int i = 0; i < argCount; i++) {
+                        if(i > 0) {
+                            line.append(", ");
+                        }
+                        line.append(phase == BinaryTraceFormat.PHASE_IN ? method[i + 2] : "result").append(": ");
+                        appendArg(buffer, dictionary, line);
+                    }
+                    line.append("}}");
+                    out.println(line);
+                    break;
+                }
+                default:
+                    throw new IOException(segmentPath + ": unknown record type " + recordType + " at " + (buffer.position() - 1));
+            }
+        }
+    }
+
+    private static void appendArg(ByteBuffer buffer, Map<Integer, String> dictionary, StringBuilder line) throws IOException {
+        byte tag = buffer.get();
+        switch(tag) {
+            case BinaryTraceFormat.TAG_NULL:
+                line.append("null");
+                break;
+            case BinaryTraceFormat.TAG_TRUE:
+                line.append(true);
+                break;
+            case BinaryTraceFormat.TAG_FALSE:
+                line.append(false);
+                break;
+            case BinaryTraceFormat.TAG_INT: {
+                int value = getVarint(buffer);
+                line.append((value >>> 1) ^ -(value & 1));
+                break;
+            }
+            case BinaryTraceFormat.TAG_LONG: {
+                long value = getVarlong(buffer);
+                line.append((value >>> 1) ^ -(value & 1));
+                break;
+            }
+            case BinaryTraceFormat.TAG_FLOAT:
+                line.append(Float.intBitsToFloat(buffer.getInt()));
+                break;
+            case BinaryTraceFormat.TAG_DOUBLE:
+                line.append(Double.longBitsToDouble(buffer.getLong()));
+                break;
+            case BinaryTraceFormat.TAG_CHAR:
+                line.append((char)getVarint(buffer));
+                break;
+            case BinaryTraceFormat.TAG_STRING:
+                line.append(getString(buffer));
+                break;
+            case BinaryTraceFormat.TAG_STRING_REF:
+                line.append(dictionary.get(getVarint(buffer)));
+                break;
+            default:
+                throw new IOException("unknown argument tag " + tag + " at " + (buffer.position() - 1));
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer);
+        String result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return result;
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int result = 0;
+        for(int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+    private static long getVarlong(ByteBuffer buffer) {
+        long result = 0;
+        for(int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            result |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+}
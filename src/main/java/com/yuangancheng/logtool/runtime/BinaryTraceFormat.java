@@ -0,0 +1,50 @@
+package com.yuangancheng.logtool.runtime;
+
+/**
+ * The layout of the segments written by BinaryTraceSink.
+ *
+ * A segment starts with a header: magic (int), version (byte) and the base time in milliseconds (long).
+ * Then it is a sequence of records, each starts with its type (byte):
+ *   METHOD: method id (varint), class name (string), method name (string), parameter count (varint), parameter names (string)
+ *   STRING: string id (varint), value (string)
+ *   EVENT: method id (varint), phase (byte), time offset to the base time (varlong), request id (TAG_NULL if none,
+ *          otherwise TAG_STRING followed by the string, as request ids are unique per request and are not put into
+ *          the dictionary), argument count (varint), arguments (tag byte followed by the value)
+ *   END: the rest of the segment is unused
+ * A string is its UTF-8 byte length (varint) followed by its UTF-8 bytes. Every segment is self-contained: the
+ * methods and the strings are defined in a segment before the first event referring to them.
+ */
+final class BinaryTraceFormat {
+
+    static final int MAGIC = 0x4C544231;
+    static final byte VERSION = 2;
+    static final int HEADER_SIZE = 13;
+
+    static final byte RECORD_END = 0;
+    static final byte RECORD_METHOD = 1;
+    static final byte RECORD_STRING = 2;
+    static final byte RECORD_EVENT = 3;
+
+    static final byte PHASE_IN = 0;
+    static final byte PHASE_OUT = 1;
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_TRUE = 1;
+    static final byte TAG_FALSE = 2;
+    /* zigzag varint, also used by byte and short */
+    static final byte TAG_INT = 3;
+    /* zigzag varlong */
+    static final byte TAG_LONG = 4;
+    /* raw int bits */
+    static final byte TAG_FLOAT = 5;
+    /* raw long bits */
+    static final byte TAG_DOUBLE = 6;
+    /* varint */
+    static final byte TAG_CHAR = 7;
+    static final byte TAG_STRING = 8;
+    /* string id (varint) */
+    static final byte TAG_STRING_REF = 9;
+
+    private BinaryTraceFormat() {
+    }
+}
@@ -0,0 +1,339 @@
+package com.yuangancheng.logtool.runtime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The binary sink of traced methods (@EnableTraceLog(sink = TraceSinkEnum.BINARY)). The events are encoded in a
+ * compact binary format (see BinaryTraceFormat) and appended to rolling memory-mapped segment files, which can be
+ * turned back into the human-readable format by BinaryTraceDecoder.
+ * The directory and the size of segments can be configured by the system properties "logtool.binary.dir" (default
+ * "logtool-trace") and "logtool.binary.segmentSize" (default 64MB).
+ */
+public final class BinaryTraceSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryTraceSink.class);
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_DICTIONARY_SIZE = 65536;
+    private static final int MAX_DICTIONARY_STRING_LENGTH = 64;
+
+    /* method id -> {class name, method name, parameter names...} */
+    private static final ArrayList<String[]> methodList = new ArrayList<>();
+    private static final Map<String, Integer> classMethodIdBaseMap = new HashMap<>();
+
+    private BinaryTraceSink() {
+    }
+
+    private static final class Holder {
+        private static final Writer WRITER = new Writer(
+                Paths.get(System.getProperty("logtool.binary.dir", "logtool-trace")),
+                Integer.getInteger("logtool.binary.segmentSize", DEFAULT_SEGMENT_SIZE)
+        );
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(WRITER::force, "logtool-binary-trace-shutdown"));
+        }
+    }
+
+    /**
+     * Register the traced methods of a class. The id of a method is the returned base id plus its compile-time
+     * ordinal in the class.
+     *
+     * @param className the name of class
+     * @param methodDescriptors the descriptors of traced methods in the form of "methodName:param1,param2"
+     * @return the base id of methods of the class
+     */
+    public static synchronized int registerClass(String className, String[] methodDescriptors) {
+        Integer base = classMethodIdBaseMap.get(className);
+        if(base != null) {
+            return base;
+        }
+        base = methodList.size();
+        for(String methodDescriptor : methodDescriptors) {
+            int colon = methodDescriptor.indexOf(':');
+            String params = methodDescriptor.substring(colon + 1);
+            String[] paramNames = params.isEmpty() ? new String[0] : params.split(",");
+            String[] method = new String[paramNames.length + 2];
+            method[0] = className;
+            method[1] = methodDescriptor.substring(0, colon);
+            System.arraycopy(paramNames, 0, method, 2, paramNames.length);
+            methodList.add(method);
+        }
+        classMethodIdBaseMap.put(className, base);
+        return base;
+    }
+
+    static synchronized String[] getMethod(int methodId) {
+        return methodList.get(methodId);
+    }
+
+    /**
+     * Get the empty arguments of current thread, which the generated code puts the parameters or the result of a
+     * traced method into, e.g. in(methodId, reqId, args().putInt(id).putObject(name))
+     *
+     * @return
+     */
+    public static TraceArgs args() {
+        return TraceArgs.acquire();
+    }
+
+    /**
+     * Write the parameters of a traced method
+     *
+     * @param methodId the id of method
+     * @param reqId the request id, or null
+     * @param args the parameters returned by args()
+     */
+    public static void in(int methodId, String reqId, TraceArgs args) {
+        write(methodId, BinaryTraceFormat.PHASE_IN, reqId, args);
+    }
+
+    /**
+     * Write the result of a traced method
+     *
+     * @param methodId the id of method
+     * @param reqId the request id, or null
+     * @param result the result returned by args()
+     */
+    public static void out(int methodId, String reqId, TraceArgs result) {
+        write(methodId, BinaryTraceFormat.PHASE_OUT, reqId, result);
+    }
+
+    /**
+     * Render the objects which can't be encoded directly (in place, outside of the writer's lock), then write the event
+     */
+    private static void write(int methodId, byte phase, String reqId, TraceArgs args) {
+        try {
+            for(int i = 0; i < args.size; i++) {
+                if(args.kinds[i] == TraceArgs.KIND_OBJECT) {
+                    args.objects[i] = render(args.objects[i]);
+                }
+            }
+            Holder.WRITER.write(methodId, phase, reqId, args);
+        }finally{
+            args.release();
+        }
+    }
+
+    /**
+     * Render the argument to a string outside of the writer's lock unless it can be encoded directly
+     */
+    private static Object render(Object arg) {
+        if(arg == null || arg instanceof String || arg instanceof Number || arg instanceof Boolean || arg instanceof Character) {
+            return arg;
+        }
+        return TraceArgFormatter.render(arg);
+    }
+
+    /**
+     * The writer of segments. All the states are guarded by its lock.
+     */
+    private static final class Writer {
+
+        private final Path directory;
+        private final int segmentSize;
+        private final TraceByteBuffer record = new TraceByteBuffer(1024);
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final BitSet definedMethodSet = new BitSet();
+        private MappedByteBuffer segment;
+        private long baseTime;
+        private int segmentNum;
+        private boolean failed;
+
+        private Writer(Path directory, int segmentSize) {
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+        }
+
+        private synchronized void write(int methodId, byte phase, String reqId, TraceArgs args) {
+            if(failed) {
+                return;
+            }
+            try {
+                if(segment == null) {
+                    nextSegment();
+                }
+                encode(methodId, phase, reqId, args);
+                if(record.position() > segment.remaining()) {
+                    nextSegment();
+                    encode(methodId, phase, reqId, args);
+                    if(record.position() > segment.remaining()) {
+                        dictionary.clear();
+                        definedMethodSet.clear();
+                        logger.warn("logtool: a trace event of {} bytes is larger than a segment and is dropped", record.position());
+                        return;
+                    }
+                }
+                record.writeTo(segment);
+            }catch(IOException | RuntimeException e) {
+                failed = true;
+                logger.error("logtool: failed to write binary trace segments into " + directory + ", the binary sink is disabled", e);
+            }
+        }
+
+        /**
+         * Encode an event (and the definitions it refers to) into the record buffer
+         */
+        private void encode(int methodId, byte phase, String reqId, TraceArgs args) {
+            record.clear();
+            if(!definedMethodSet.get(methodId)) {
+                String[] method = getMethod(methodId);
+                record.putByte(BinaryTraceFormat.RECORD_METHOD);
+                record.putVarint(methodId);
+                record.putString(method[0]);
+                record.putString(method[1]);
+                record.putVarint(method.length - 2);
+                for(int i = 2; i < method.length; i++) {
+                    record.putString(method[i]);
+                }
+                definedMethodSet.set(methodId);
+            }
+            for(int i = 0; i < args.size; i++) {
+                if(args.kinds[i] == TraceArgs.KIND_OBJECT && args.objects[i] instanceof String) {
+                    defineString((String)args.objects[i]);
+                }
+            }
+            record.putByte(BinaryTraceFormat.RECORD_EVENT);
+            record.putVarint(methodId);
+            record.putByte(phase);
+            record.putVarlong(System.currentTimeMillis() - baseTime);
+            /* a request id is written inline, so it neither fills the dictionary nor is lost when the dictionary is full */
+            if(reqId == null) {
+                record.putByte(BinaryTraceFormat.TAG_NULL);
+            }else{
+                record.putByte(BinaryTraceFormat.TAG_STRING);
+                record.putString(reqId);
+            }
+            record.putVarint(args.size);
+            for(int i = 0; i < args.size; i++) {
+                encodeArg(args, i);
+            }
+        }
+
+        /**
+         * Define a short string in the dictionary of current segment
+         *
+         * @return the id of string, or -1 if the string is not suitable for the dictionary
+         */
+        private int defineString(String value) {
+            if(value.length() > MAX_DICTIONARY_STRING_LENGTH) {
+                return -1;
+            }
+            Integer id = dictionary.get(value);
+            if(id != null) {
+                return id;
+            }
+            if(dictionary.size() >= MAX_DICTIONARY_SIZE) {
+                return -1;
+            }
+            id = dictionary.size();
+            dictionary.put(value, id);
+            record.putByte(BinaryTraceFormat.RECORD_STRING);
+            record.putVarint(id);
+            record.putString(value);
+            return id;
+        }
+
+        /**
+         * Encode a primitive argument without boxing it
+         */
+        private void encodeArg(TraceArgs args, int index) {
+            long value = args.values[index];
+            switch(args.kinds[index]) {
+                case TraceArgs.KIND_INT:
+                    record.putByte(BinaryTraceFormat.TAG_INT);
+                    record.putZigzagInt((int)value);
+                    break;
+                case TraceArgs.KIND_LONG:
+                    record.putByte(BinaryTraceFormat.TAG_LONG);
+                    record.putZigzagLong(value);
+                    break;
+                case TraceArgs.KIND_FLOAT:
+                    record.putByte(BinaryTraceFormat.TAG_FLOAT);
+                    record.putInt((int)value);
+                    break;
+                case TraceArgs.KIND_DOUBLE:
+                    record.putByte(BinaryTraceFormat.TAG_DOUBLE);
+                    record.putLong(value);
+                    break;
+                case TraceArgs.KIND_BOOLEAN:
+                    record.putByte(value != 0 ? BinaryTraceFormat.TAG_TRUE : BinaryTraceFormat.TAG_FALSE);
+                    break;
+                case TraceArgs.KIND_CHAR:
+                    record.putByte(BinaryTraceFormat.TAG_CHAR);
+                    record.putVarint((int)value);
+                    break;
+                default:
+                    encodeArg(args.objects[index]);
+                    break;
+            }
+        }
+
+        private void encodeArg(Object arg) {
+            if(arg == null) {
+                record.putByte(BinaryTraceFormat.TAG_NULL);
+            }else if(arg instanceof String) {
+                Integer id = dictionary.get(arg);
+                if(id != null) {
+                    record.putByte(BinaryTraceFormat.TAG_STRING_REF);
+                    record.putVarint(id);
+                }else{
+                    record.putByte(BinaryTraceFormat.TAG_STRING);
+                    record.putString((String)arg);
+                }
+            }else if(arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+                record.putByte(BinaryTraceFormat.TAG_INT);
+                record.putZigzagInt(((Number)arg).intValue());
+            }else if(arg instanceof Long) {
+                record.putByte(BinaryTraceFormat.TAG_LONG);
+                record.putZigzagLong((Long)arg);
+            }else if(arg instanceof Double) {
+                record.putByte(BinaryTraceFormat.TAG_DOUBLE);
+                record.putLong(Double.doubleToRawLongBits((Double)arg));
+            }else if(arg instanceof Float) {
+                record.putByte(BinaryTraceFormat.TAG_FLOAT);
+                record.putInt(Float.floatToRawIntBits((Float)arg));
+            }else if(arg instanceof Boolean) {
+                record.putByte((Boolean)arg ? BinaryTraceFormat.TAG_TRUE : BinaryTraceFormat.TAG_FALSE);
+            }else if(arg instanceof Character) {
+                record.putByte(BinaryTraceFormat.TAG_CHAR);
+                record.putVarint((Character)arg);
+            }else{
+                record.putByte(BinaryTraceFormat.TAG_STRING);
+                record.putString(String.valueOf(arg));
+            }
+        }
+
+        private void nextSegment() throws IOException {
+            if(segment != null) {
+                segment.force();
+            }
+            Files.createDirectories(directory);
+            baseTime = System.currentTimeMillis();
+            Path path = directory.resolve(String.format("trace-%d-%06d.ltb", baseTime, segmentNum++));
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            segment.putInt(BinaryTraceFormat.MAGIC);
+            segment.put(BinaryTraceFormat.VERSION);
+            segment.putLong(baseTime);
+            dictionary.clear();
+            definedMethodSet.clear();
+        }
+
+        private synchronized void force() {
+            if(segment != null) {
+                segment.force();
+            }
+        }
+    }
+}
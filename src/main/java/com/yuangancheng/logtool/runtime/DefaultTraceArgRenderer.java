@@ -0,0 +1,227 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The default bounded renderer. Arrays, collections and maps are rendered element by element into the builder, so
+ * a large or deep argument is truncated without being rendered in full or building intermediate strings:
+ * the elements beyond the limit are summarized by their count, e.g. "[1, 2, 3, ...(50000 elements)]", the containers
+ * nested deeper than the max depth are summarized by their sizes, e.g. "[...(3 elements)]", and the rendering of an
+ * argument is cut at the max characters. The classes annotated with @TraceAppender are rendered by their generated
+ * appenders within the same limits.
+ * The limits are configured by the system properties "logtool.render.maxChars" (default 4096),
+ * "logtool.render.maxCollectionElements" (default 100), "logtool.render.maxArrayElements" (default 100) and
+ * "logtool.render.maxDepth" (default 3).
+ */
+public class DefaultTraceArgRenderer implements TraceArgRenderer {
+
+    private static final String TRUNCATED = "...";
+
+    private final int maxChars;
+    private final int maxCollectionElements;
+    private final int maxArrayElements;
+    private final int maxDepth;
+    /* the renderers of the fields of TraceAppendable arguments by depth */
+    private final ThreadLocal<NestedRenderer[]> nestedRenderers;
+
+    public DefaultTraceArgRenderer() {
+        this(
+                Integer.getInteger("logtool.render.maxChars", 4096),
+                Integer.getInteger("logtool.render.maxCollectionElements", 100),
+                Integer.getInteger("logtool.render.maxArrayElements", 100),
+                Integer.getInteger("logtool.render.maxDepth", 3)
+        );
+    }
+
+    /**
+     * @param maxChars the max characters of an argument
+     * @param maxCollectionElements the max elements (or entries) rendered of a collection (or map)
+     * @param maxArrayElements the max elements rendered of an array
+     * @param maxDepth the max nesting depth of the rendered containers
+     */
+    public DefaultTraceArgRenderer(int maxChars, int maxCollectionElements, int maxArrayElements, int maxDepth) {
+        this.maxChars = maxChars;
+        this.maxCollectionElements = maxCollectionElements;
+        this.maxArrayElements = maxArrayElements;
+        this.maxDepth = maxDepth;
+        this.nestedRenderers = ThreadLocal.withInitial(() -> {
+            NestedRenderer[] renderers = new NestedRenderer[Math.max(maxDepth, 0)];
+            for(int i = 0; i < renderers.length; i++) {
+                renderers[i] = new NestedRenderer(i + 1);
+            }
+            return renderers;
+        });
+    }
+
+    @Override
+    public void render(Object arg, StringBuilder builder) {
+        int limit = builder.length() + maxChars;
+        renderValue(arg, builder, 0, limit);
+        if(builder.length() > limit) {
+            builder.setLength(limit);
+            builder.append(TRUNCATED);
+        }
+    }
+
+    /**
+     * @param limit the length of builder beyond which the rendering stops
+     */
+    private void renderValue(Object arg, StringBuilder builder, int depth, int limit) {
+        if(arg == null) {
+            builder.append("null");
+        }else if(arg instanceof CharSequence) {
+            appendBounded((CharSequence)arg, builder, limit);
+        }else if(arg instanceof TraceAppendable) {
+            renderAppendable((TraceAppendable)arg, builder, depth, limit);
+        }else if(arg.getClass().isArray()) {
+            renderArray(arg, builder, depth, limit);
+        }else if(arg instanceof Collection) {
+            renderCollection((Collection<?>)arg, builder, depth, limit);
+        }else if(arg instanceof Map) {
+            renderMap((Map<?, ?>)arg, builder, depth, limit);
+        }else{
+            appendBounded(String.valueOf(arg), builder, limit);
+        }
+    }
+
+    private void renderArray(Object array, StringBuilder builder, int depth, int limit) {
+        int length = java.lang.reflect.Array.getLength(array);
+        builder.append('[');
+        if(depth >= maxDepth && length > 0) {
+            appendSummary(builder, length, "elements");
+        }else{
+            int num = Math.min(length, maxArrayElements);
+            for(int i = 0; i < num && builder.length() <= limit; i++) {
+                if(i > 0) {
+                    builder.append(", ");
+                }
+                renderArrayElement(array, i, builder, depth, limit);
+            }
+            if(num < length) {
+                builder.append(", ");
+                appendSummary(builder, length, "elements");
+            }
+        }
+        builder.append(']');
+    }
+
+    private void renderArrayElement(Object array, int index, StringBuilder builder, int depth, int limit) {
+        if(array instanceof Object[]) {
+            renderValue(((Object[])array)[index], builder, depth + 1, limit);
+        }else if(array instanceof int[]) {
+            builder.append(((int[])array)[index]);
+        }else if(array instanceof long[]) {
+            builder.append(((long[])array)[index]);
+        }else if(array instanceof byte[]) {
+            builder.append(((byte[])array)[index]);
+        }else if(array instanceof short[]) {
+            builder.append(((short[])array)[index]);
+        }else if(array instanceof char[]) {
+            builder.append(((char[])array)[index]);
+        }else if(array instanceof boolean[]) {
+            builder.append(((boolean[])array)[index]);
+        }else if(array instanceof float[]) {
+            builder.append(((float[])array)[index]);
+        }else if(array instanceof double[]) {
+            builder.append(((double[])array)[index]);
+        }
+    }
+
+    private void renderCollection(Collection<?> collection, StringBuilder builder, int depth, int limit) {
+        int size = collection.size();
+        builder.append('[');
+        if(depth >= maxDepth && size > 0) {
+            appendSummary(builder, size, "elements");
+        }else{
+            int num = 0;
+            Iterator<?> iterator = collection.iterator();
+            while(iterator.hasNext() && num < maxCollectionElements && builder.length() <= limit) {
+                if(num++ > 0) {
+                    builder.append(", ");
+                }
+                Object element = iterator.next();
+                renderValue(element == collection ? "(this Collection)" : element, builder, depth + 1, limit);
+            }
+            if(num < size) {
+                builder.append(", ");
+                appendSummary(builder, size, "elements");
+            }
+        }
+        builder.append(']');
+    }
+
+    private void renderMap(Map<?, ?> map, StringBuilder builder, int depth, int limit) {
+        int size = map.size();
+        builder.append('{');
+        if(depth >= maxDepth && size > 0) {
+            appendSummary(builder, size, "entries");
+        }else{
+            int num = 0;
+            Iterator<? extends Map.Entry<?, ?>> iterator = map.entrySet().iterator();
+            while(iterator.hasNext() && num < maxCollectionElements && builder.length() <= limit) {
+                if(num++ > 0) {
+                    builder.append(", ");
+                }
+                Map.Entry<?, ?> entry = iterator.next();
+                renderValue(entry.getKey() == map ? "(this Map)" : entry.getKey(), builder, depth + 1, limit);
+                builder.append('=');
+                renderValue(entry.getValue() == map ? "(this Map)" : entry.getValue(), builder, depth + 1, limit);
+            }
+            if(num < size) {
+                builder.append(", ");
+                appendSummary(builder, size, "entries");
+            }
+        }
+        builder.append('}');
+    }
+
+    /**
+     * Render an argument by its generated appender, whose fields are rendered one level deeper within the same limit
+     */
+    private void renderAppendable(TraceAppendable appendable, StringBuilder builder, int depth, int limit) {
+        if(depth >= maxDepth) {
+            builder.append(appendable.getClass().getSimpleName()).append("{...}");
+            return;
+        }
+        NestedRenderer nestedRenderer = nestedRenderers.get()[depth];
+        /* the renderer may be reentered if toString() of a field renders another argument on the same thread */
+        int outerLimit = nestedRenderer.limit;
+        nestedRenderer.limit = limit;
+        try {
+            appendable.appendTraceTo(builder, nestedRenderer);
+        }finally{
+            nestedRenderer.limit = outerLimit;
+        }
+    }
+
+    private final class NestedRenderer implements TraceArgRenderer {
+
+        private final int depth;
+        private int limit;
+
+        private NestedRenderer(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public void render(Object arg, StringBuilder builder) {
+            if(builder.length() <= limit) {
+                renderValue(arg, builder, depth, limit);
+            }
+        }
+    }
+
+    private void appendSummary(StringBuilder builder, int size, String unit) {
+        builder.append("...(").append(size).append(' ').append(unit).append(')');
+    }
+
+    private void appendBounded(CharSequence value, StringBuilder builder, int limit) {
+        int remaining = limit - builder.length() + 1;
+        if(remaining <= 0) {
+            return;
+        }
+        builder.append(value, 0, Math.min(value.length(), remaining));
+    }
+}
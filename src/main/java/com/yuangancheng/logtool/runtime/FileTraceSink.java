@@ -0,0 +1,544 @@
+package com.yuangancheng.logtool.runtime;
+
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The file sink of traced methods (@EnableTraceLog(sink = TraceSinkEnum.FILE)). The lines are in the same format as
+ * the SLF4J sink, prefixed by the time, the thread, the level and the class, e.g.
+ * "2020-09-15 17:49:00.123 [main] INFO  com.example.Dog - bark{in: {times: 3}}". The constant parts of a line are
+ * encoded into UTF-8 bytes once when the class is registered, and the values are encoded into a reused buffer of
+ * current thread, so no String is created per line (except by the toString() of the arguments). The lines are copied
+ * into a direct buffer which is written to the file through a FileChannel when it is full or periodically.
+ * The file, the size of the buffer and the interval of flushes can be configured by the system properties
+ * "logtool.file.path" (default "logtool-trace.log"), "logtool.file.bufferSize" (default 256KB) and
+ * "logtool.file.flushIntervalMillis" (default 1000).
+ * In JSON format (@EnableTraceLog(format = TraceFormatEnum.JSON)), a line is a JSON object with the same fields as
+ * TraceArgFormatter.formatJson(), and the keys are encoded once as well.
+ */
+public final class FileTraceSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileTraceSink.class);
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000L;
+    /* a larger buffer of line or value is not kept after use */
+    private static final int MAX_KEPT_CAPACITY = 64 * 1024;
+    private static final byte[][] LEVEL_NAMES = new byte[LogLevelEnum.values().length][];
+    /* e.g. ","level":"INFO"," */
+    private static final byte[][] JSON_LEVEL_NAMES = new byte[LogLevelEnum.values().length][];
+    private static final byte[] JSON_TIMESTAMP_KEY = "{\"timestamp\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_THREAD_KEY = ",\"thread\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_REQ_ID_KEY = "\"reqId\":".getBytes(StandardCharsets.UTF_8);
+    private static final ThreadLocal<Encoder> LOCAL = ThreadLocal.withInitial(Encoder::new);
+    /* Thread.name is a char[] on JDK 8 and getName() creates a String of it, so it is read directly there */
+    private static final Field THREAD_NAME_FIELD = threadNameField();
+
+    /* method id -> method, replaced on registration so that it is read without locking */
+    private static volatile Method[] methods = new Method[0];
+    private static final Map<String, Integer> classMethodIdBaseMap = new HashMap<>();
+
+    static {
+        for(LogLevelEnum level : LogLevelEnum.values()) {
+            /* padded to the same width as the common layouts, e.g. "INFO " */
+            LEVEL_NAMES[level.ordinal()] = String.format("%-5s", level.name()).getBytes(StandardCharsets.UTF_8);
+            JSON_LEVEL_NAMES[level.ordinal()] = (",\"level\":\"" + level.name() + "\",").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private FileTraceSink() {
+    }
+
+    private static final class Holder {
+        private static final Writer WRITER = new Writer(
+                Paths.get(System.getProperty("logtool.file.path", "logtool-trace.log")),
+                Integer.getInteger("logtool.file.bufferSize", DEFAULT_BUFFER_SIZE)
+        );
+
+        static {
+            long flushIntervalNanos = Long.getLong("logtool.file.flushIntervalMillis", DEFAULT_FLUSH_INTERVAL_MILLIS) * 1_000_000L;
+            Thread flusher = new Thread(() -> {
+                while(true) {
+                    LockSupport.parkNanos(flushIntervalNanos);
+                    WRITER.flush();
+                }
+            }, "logtool-file-trace-flush");
+            flusher.setDaemon(true);
+            flusher.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(WRITER::flush, "logtool-file-trace-shutdown"));
+        }
+    }
+
+    /**
+     * The constant parts of the lines of a method
+     */
+    private static final class Method {
+        private final boolean json;
+        /* " className - ", or ""class":"className"," in JSON format */
+        private final byte[] loggerName;
+        /* "methodName{in: {param1: ", ", param2: ", "}}", or ""method":"methodName","phase":"in","params":{"param1":", ","param2":", "}}" */
+        private final byte[][] inParts;
+        /* "methodName{out: {result: ", "}}", or ""method":"methodName","phase":"out","result":", "}" */
+        private final byte[][] outParts;
+
+        private Method(String className, String methodName, String[] paramNames, boolean json) {
+            this.json = json;
+            inParts = new byte[paramNames.length + 1][];
+            if(json) {
+                /* the names of Java identifiers never need to be escaped */
+                loggerName = utf8("\"class\":\"" + className + "\",");
+                String methodPart = "\"method\":\"" + methodName + "\",\"phase\":";
+                for(int i = 0; i < paramNames.length; i++) {
+                    inParts[i] = utf8((i == 0 ? methodPart + "\"in\",\"params\":{" : ",") + "\"" + paramNames[i] + "\":");
+                }
+                inParts[paramNames.length] = utf8(paramNames.length == 0 ? methodPart + "\"in\",\"params\":{}}" : "}}");
+                outParts = new byte[][]{utf8(methodPart + "\"out\",\"result\":"), utf8("}")};
+                return;
+            }
+            loggerName = utf8(" " + className + " - ");
+            for(int i = 0; i < paramNames.length; i++) {
+                inParts[i] = utf8((i == 0 ? methodName + "{in: {" : ", ") + paramNames[i] + ": ");
+            }
+            inParts[paramNames.length] = utf8(paramNames.length == 0 ? methodName + "{in: {}}" : "}}");
+            outParts = new byte[][]{utf8(methodName + "{out: {result: "), utf8("}}")};
+        }
+
+        private static byte[] utf8(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Register the traced methods of a class. The id of a method is the returned base id plus its compile-time
+     * ordinal in the class.
+     *
+     * @param className the name of class
+     * @param methodDescriptors the descriptors of traced methods in the form of "methodName:param1,param2"
+     * @return the base id of methods of the class
+     */
+    public static int registerClass(String className, String[] methodDescriptors) {
+        return registerClass(className, methodDescriptors, false);
+    }
+
+    /**
+     * Same as registerClass(className, methodDescriptors)
+     *
+     * @param json whether the lines of the methods are in JSON format
+     */
+    public static synchronized int registerClass(String className, String[] methodDescriptors, boolean json) {
+        Integer base = classMethodIdBaseMap.get(className);
+        if(base != null) {
+            return base;
+        }
+        Method[] newMethods = Arrays.copyOf(methods, methods.length + methodDescriptors.length);
+        for(int i = 0; i < methodDescriptors.length; i++) {
+            int colon = methodDescriptors[i].indexOf(':');
+            String params = methodDescriptors[i].substring(colon + 1);
+            newMethods[methods.length + i] = new Method(className, methodDescriptors[i].substring(0, colon), params.isEmpty() ? new String[0] : params.split(","), json);
+        }
+        base = methods.length;
+        methods = newMethods;
+        classMethodIdBaseMap.put(className, base);
+        return base;
+    }
+
+    /**
+     * Get the empty arguments of current thread, which the generated code puts the parameters or the result of a
+     * traced method into, e.g. in(methodId, level, reqId, args().putInt(id).putObject(name))
+     *
+     * @return
+     */
+    public static TraceArgs args() {
+        return TraceArgs.acquire();
+    }
+
+    /**
+     * Write the line of the parameters of a traced method
+     *
+     * @param methodId the id of method
+     * @param level the log level of method
+     * @param reqId the request id, or null
+     * @param args the parameters returned by args()
+     */
+    public static void in(int methodId, LogLevelEnum level, String reqId, TraceArgs args) {
+        Method method = methods[methodId];
+        write(method, method.inParts, level, reqId, args);
+    }
+
+    /**
+     * Write the line of the result of a traced method
+     *
+     * @param methodId the id of method
+     * @param level the log level of method
+     * @param reqId the request id, or null
+     * @param result the result returned by args()
+     */
+    public static void out(int methodId, LogLevelEnum level, String reqId, TraceArgs result) {
+        Method method = methods[methodId];
+        write(method, method.outParts, level, reqId, result);
+    }
+
+    /**
+     * Encode the line (outside of the writer's lock), then copy it into the buffer of writer
+     */
+    private static void write(Method method, byte[][] parts, LogLevelEnum level, String reqId, TraceArgs args) {
+        Encoder encoder = Encoder.acquire();
+        try {
+            encoder.encode(method, parts, level, reqId, args);
+            Holder.WRITER.write(encoder.line);
+        }finally{
+            args.release();
+            encoder.release();
+        }
+    }
+
+    /**
+     * Get the private field Thread.name if it is a char[] (JDK 8), which is read reflectively since getName() wraps it
+     * into a new String on every call, while the identity of the array only changes when the thread is renamed, so
+     * the encoded name is cached by it. On JDK 9+ the field is a String (and not accessible without --add-opens), so
+     * null is returned and getName() is used instead, which returns the field itself.
+     *
+     * @return the field, or null
+     */
+    private static Field threadNameField() {
+        try {
+            Field field = Thread.class.getDeclaredField("name");
+            if(field.getType() == char[].class) {
+                field.setAccessible(true);
+                return field;
+            }
+        }catch(Exception e) {
+            /* getName() is used instead */
+        }
+        return null;
+    }
+
+    /**
+     * The reused buffers of current thread encoding the lines
+     */
+    private static final class Encoder {
+
+        private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+
+        private TraceByteBuffer line = new TraceByteBuffer(1024);
+        /* the rendered value of an object, a float or a double */
+        private StringBuilder value = new StringBuilder(256);
+        /* "yyyy-MM-dd HH:mm:ss." of the second of last line */
+        private final byte[] dateTime = new byte[20];
+        private long second = Long.MIN_VALUE;
+        /* the name of current thread (the char[] on JDK 8) when the bytes were encoded, compared by identity */
+        private Object threadName;
+        private byte[] threadNameBytes;
+        private byte[] jsonThreadNameBytes;
+        private boolean inUse;
+
+        /**
+         * Get the encoder of current thread. A new encoder is created if it is in use, e.g. when toString() of an
+         * argument calls another traced method while the line is being encoded.
+         */
+        private static Encoder acquire() {
+            Encoder encoder = LOCAL.get();
+            if(encoder.inUse) {
+                return new Encoder();
+            }
+            encoder.inUse = true;
+            return encoder;
+        }
+
+        private void release() {
+            if(line.capacity() > MAX_KEPT_CAPACITY) {
+                line = new TraceByteBuffer(1024);
+            }
+            if(value.capacity() > MAX_KEPT_CAPACITY) {
+                value = new StringBuilder(256);
+            }
+            inUse = false;
+        }
+
+        /**
+         * Encode the name of current thread again if it has been changed, a new name is always a new object
+         */
+        private void refreshThreadName() {
+            Thread thread = Thread.currentThread();
+            Object name = null;
+            if(THREAD_NAME_FIELD != null) {
+                try {
+                    name = THREAD_NAME_FIELD.get(thread);
+                }catch(IllegalAccessException e) {
+                    /* not expected as the field is accessible */
+                }
+            }
+            if(name == null) {
+                name = thread.getName();
+            }
+            if(name != threadName || threadNameBytes == null) {
+                String nameString = thread.getName();
+                TraceByteBuffer jsonName = new TraceByteBuffer(nameString.length() + 2);
+                jsonName.putJsonString(nameString);
+                threadName = name;
+                threadNameBytes = nameString.getBytes(StandardCharsets.UTF_8);
+                jsonThreadNameBytes = jsonName.toByteArray();
+            }
+        }
+
+        private void encode(Method method, byte[][] parts, LogLevelEnum level, String reqId, TraceArgs args) {
+            line.clear();
+            if(method.json) {
+                encodeJson(method, parts, level, reqId, args);
+                return;
+            }
+            long millis = System.currentTimeMillis();
+            if(millis / 1000 != second) {
+                second = millis / 1000;
+                formatDateTime(millis);
+            }
+            line.putBytes(dateTime);
+            int millisOfSecond = (int)(millis % 1000);
+            line.putByte('0' + millisOfSecond / 100);
+            line.putByte('0' + millisOfSecond / 10 % 10);
+            line.putByte('0' + millisOfSecond % 10);
+            line.putUtf8(" [");
+            refreshThreadName();
+            line.putBytes(threadNameBytes);
+            line.putUtf8("] ");
+            line.putBytes(LEVEL_NAMES[level.ordinal()]);
+            line.putBytes(method.loggerName);
+            if(reqId != null) {
+                line.putUtf8(reqId);
+                line.putByte(':');
+            }
+            line.putBytes(parts[0]);
+            for(int i = 0; i < args.size && i + 1 < parts.length; i++) {
+                putArg(args, i);
+                line.putBytes(parts[i + 1]);
+            }
+            line.putByte('\n');
+        }
+
+        private void encodeJson(Method method, byte[][] parts, LogLevelEnum level, String reqId, TraceArgs args) {
+            line.putBytes(JSON_TIMESTAMP_KEY);
+            line.putDecimal(System.currentTimeMillis());
+            line.putBytes(JSON_THREAD_KEY);
+            refreshThreadName();
+            line.putBytes(jsonThreadNameBytes);
+            line.putBytes(JSON_LEVEL_NAMES[level.ordinal()]);
+            if(reqId != null) {
+                line.putBytes(JSON_REQ_ID_KEY);
+                line.putJsonString(reqId);
+                line.putByte(',');
+            }
+            line.putBytes(method.loggerName);
+            line.putBytes(parts[0]);
+            for(int i = 0; i < args.size && i + 1 < parts.length; i++) {
+                putJsonArg(args, i);
+                line.putBytes(parts[i + 1]);
+            }
+            line.putByte('\n');
+        }
+
+        /**
+         * Encode an argument as a JSON value, see TraceArgFormatter.formatJson()
+         */
+        private void putJsonArg(TraceArgs args, int index) {
+            long arg = args.values[index];
+            switch(args.kinds[index]) {
+                case TraceArgs.KIND_FLOAT:
+                    float floatValue = Float.intBitsToFloat((int)arg);
+                    value.setLength(0);
+                    value.append(floatValue);
+                    if(Float.isNaN(floatValue) || Float.isInfinite(floatValue)) {
+                        line.putJsonString(value);
+                    }else{
+                        line.putUtf8(value);
+                    }
+                    break;
+                case TraceArgs.KIND_DOUBLE:
+                    double doubleValue = Double.longBitsToDouble(arg);
+                    value.setLength(0);
+                    value.append(doubleValue);
+                    if(Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                        line.putJsonString(value);
+                    }else{
+                        line.putUtf8(value);
+                    }
+                    break;
+                case TraceArgs.KIND_CHAR:
+                    value.setLength(0);
+                    line.putJsonString(value.append((char)arg));
+                    break;
+                case TraceArgs.KIND_OBJECT:
+                    Object object = args.objects[index];
+                    value.setLength(0);
+                    if(object == null || TraceArgFormatter.isJsonLiteral(object)) {
+                        line.putUtf8(value.append(object));
+                    }else{
+                        TraceArgFormatter.render(object, value);
+                        line.putJsonString(value);
+                    }
+                    break;
+                default:
+                    /* the integers and the booleans are the same as in text */
+                    putArg(args, index);
+                    break;
+            }
+        }
+
+        /**
+         * Encode an argument, the primitives are encoded without boxing
+         */
+        private void putArg(TraceArgs args, int index) {
+            long arg = args.values[index];
+            switch(args.kinds[index]) {
+                case TraceArgs.KIND_INT:
+                case TraceArgs.KIND_LONG:
+                    line.putDecimal(arg);
+                    break;
+                case TraceArgs.KIND_FLOAT:
+                    value.setLength(0);
+                    line.putUtf8(value.append(Float.intBitsToFloat((int)arg)));
+                    break;
+                case TraceArgs.KIND_DOUBLE:
+                    value.setLength(0);
+                    line.putUtf8(value.append(Double.longBitsToDouble(arg)));
+                    break;
+                case TraceArgs.KIND_BOOLEAN:
+                    line.putUtf8(arg != 0 ? "true" : "false");
+                    break;
+                case TraceArgs.KIND_CHAR:
+                    value.setLength(0);
+                    line.putUtf8(value.append((char)arg));
+                    break;
+                default:
+                    value.setLength(0);
+                    TraceArgFormatter.render(args.objects[index], value);
+                    line.putUtf8(value);
+                    break;
+            }
+        }
+
+        /**
+         * Format the date and time of the second in the default time zone
+         */
+        private void formatDateTime(long millis) {
+            long localSeconds = Math.floorDiv(millis + TIME_ZONE.getOffset(millis), 1000L);
+            long days = Math.floorDiv(localSeconds, 86400L);
+            int secondOfDay = (int)Math.floorMod(localSeconds, 86400L);
+            /* the civil date of the days since 1970-01-01 in the proleptic Gregorian calendar */
+            long shiftedDays = days + 719468;
+            long era = Math.floorDiv(shiftedDays, 146097L);
+            long dayOfEra = shiftedDays - era * 146097;
+            long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            long shiftedMonth = (5 * dayOfYear + 2) / 153;
+            int dayOfMonth = (int)(dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+            int month = (int)(shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+            int year = (int)(yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+            writePadded(year, 4, 0);
+            dateTime[4] = '-';
+            writePadded(month, 2, 5);
+            dateTime[7] = '-';
+            writePadded(dayOfMonth, 2, 8);
+            dateTime[10] = ' ';
+            writePadded(secondOfDay / 3600, 2, 11);
+            dateTime[13] = ':';
+            writePadded(secondOfDay / 60 % 60, 2, 14);
+            dateTime[16] = ':';
+            writePadded(secondOfDay % 60, 2, 17);
+            dateTime[19] = '.';
+        }
+
+        private void writePadded(int number, int width, int offset) {
+            for(int i = offset + width - 1; i >= offset; i--) {
+                dateTime[i] = (byte)('0' + number % 10);
+                number /= 10;
+            }
+        }
+    }
+
+    /**
+     * The writer of the file. All the states are guarded by its lock.
+     */
+    private static final class Writer {
+
+        private final Path path;
+        private final ByteBuffer buffer;
+        private FileChannel channel;
+        private boolean failed;
+
+        private Writer(Path path, int bufferSize) {
+            this.path = path;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        /**
+         * Copy a line into the buffer, the buffer is written to the file first if the line doesn't fit in it
+         */
+        private synchronized void write(TraceByteBuffer line) {
+            if(failed) {
+                return;
+            }
+            try {
+                if(channel == null) {
+                    open();
+                }
+                if(line.position() > buffer.remaining()) {
+                    writeBuffer();
+                }
+                if(line.position() > buffer.capacity()) {
+                    line.writeTo(channel);
+                }else{
+                    line.writeTo(buffer);
+                }
+            }catch(IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private synchronized void flush() {
+            if(failed || channel == null || buffer.position() == 0) {
+                return;
+            }
+            try {
+                writeBuffer();
+            }catch(IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void open() throws IOException {
+            Path parent = path.toAbsolutePath().getParent();
+            if(parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private void fail(Exception e) {
+            failed = true;
+            logger.error("logtool: failed to write trace lines into " + path + ", the file sink is disabled", e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.yuangancheng.logtool.runtime;
+
+/**
+ * Implemented by the classes annotated with @TraceAppender, whose appendTraceTo() is generated at compile time.
+ * DefaultTraceArgRenderer renders such an argument by appending its fields directly into the builder, instead of
+ * calling toString() and copying the string it builds.
+ */
+public interface TraceAppendable {
+
+    /**
+     * Append the simple name of class and the instance fields, e.g. "Order{id=1, items=[...]}". The primitive fields
+     * are appended directly, and the others are rendered by the renderer (within the limits of the enclosing argument)
+     *
+     * @param builder
+     * @param renderer
+     */
+    void appendTraceTo(StringBuilder builder, TraceArgRenderer renderer);
+}
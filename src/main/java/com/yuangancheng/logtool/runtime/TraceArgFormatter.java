@@ -0,0 +1,441 @@
+package com.yuangancheng.logtool.runtime;
+
+/**
+ * Format the log messages of traced methods by replacing the "{}" of a pattern with the arguments rendered by the
+ * current TraceArgRenderer. The message is built in a reused builder of current thread, so only the final string is
+ * allocated. The generated code calls it only after the logger is checked to be enabled.
+ * In JSON format (@EnableTraceLog(format = TraceFormatEnum.JSON)), the pattern is the rest of a JSON object whose
+ * constant keys are generated at compile time, and the arguments are written as JSON values after the timestamp and
+ * the thread.
+ */
+public final class TraceArgFormatter {
+
+    private static final int INITIAL_BUILDER_CAPACITY = 256;
+    /* a larger builder is not kept after use */
+    private static final int MAX_KEPT_BUILDER_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<BuilderHolder> HOLDER = ThreadLocal.withInitial(BuilderHolder::new);
+    private static final String[] CONTROL_CHAR_ESCAPES = new String[0x20];
+
+    static {
+        for(int i = 0; i < CONTROL_CHAR_ESCAPES.length; i++) {
+            CONTROL_CHAR_ESCAPES[i] = String.format("\\u%04x", i);
+        }
+        CONTROL_CHAR_ESCAPES['\b'] = "\\b";
+        CONTROL_CHAR_ESCAPES['\t'] = "\\t";
+        CONTROL_CHAR_ESCAPES['\n'] = "\\n";
+        CONTROL_CHAR_ESCAPES['\f'] = "\\f";
+        CONTROL_CHAR_ESCAPES['\r'] = "\\r";
+    }
+
+    private static volatile TraceArgRenderer renderer = new DefaultTraceArgRenderer();
+
+    private TraceArgFormatter() {
+    }
+
+    private static final class BuilderHolder {
+        private StringBuilder builder = new StringBuilder(INITIAL_BUILDER_CAPACITY);
+        /* a JSON value rendered before it is escaped into the builder */
+        private StringBuilder value = new StringBuilder(INITIAL_BUILDER_CAPACITY);
+        private boolean inUse;
+        private boolean valueInUse;
+    }
+
+    public static TraceArgRenderer getRenderer() {
+        return renderer;
+    }
+
+    /**
+     * Replace the renderer of all the sinks
+     *
+     * @param renderer
+     */
+    public static void setRenderer(TraceArgRenderer renderer) {
+        if(renderer == null) {
+            throw new IllegalArgumentException("The renderer must not be null");
+        }
+        TraceArgFormatter.renderer = renderer;
+    }
+
+    public static String format(String pattern, Object arg) {
+        StringBuilder builder = acquire();
+        try {
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            if(index >= 0) {
+                render(arg, builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    public static String format(String pattern, Object arg1, Object arg2) {
+        StringBuilder builder = acquire();
+        try {
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            if(index >= 0) {
+                render(arg1, builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            if(index >= 0) {
+                render(arg2, builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    public static String format(String pattern, Object... args) {
+        StringBuilder builder = acquire();
+        try {
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            for(int i = 0; i < args.length && index >= 0; i++) {
+                render(args[i], builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    /**
+     * Format with the typed arguments, the primitives are appended without boxing
+     */
+    static String format(String pattern, TraceArgs args) {
+        StringBuilder builder = acquire();
+        try {
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            for(int i = 0; i < args.size && index >= 0; i++) {
+                long value = args.values[i];
+                switch(args.kinds[i]) {
+                    case TraceArgs.KIND_INT:
+                        builder.append((int)value);
+                        break;
+                    case TraceArgs.KIND_LONG:
+                        builder.append(value);
+                        break;
+                    case TraceArgs.KIND_FLOAT:
+                        builder.append(Float.intBitsToFloat((int)value));
+                        break;
+                    case TraceArgs.KIND_DOUBLE:
+                        builder.append(Double.longBitsToDouble(value));
+                        break;
+                    case TraceArgs.KIND_BOOLEAN:
+                        builder.append(value != 0);
+                        break;
+                    case TraceArgs.KIND_CHAR:
+                        builder.append((char)value);
+                        break;
+                    default:
+                        render(args.objects[i], builder);
+                        break;
+                }
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    public static String formatJson(String pattern, Object arg) {
+        StringBuilder builder = acquire();
+        try {
+            appendJsonHeader(System.currentTimeMillis(), Thread.currentThread().getName(), builder);
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            if(index >= 0) {
+                renderJson(arg, builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    public static String formatJson(String pattern, Object arg1, Object arg2) {
+        StringBuilder builder = acquire();
+        try {
+            appendJsonHeader(System.currentTimeMillis(), Thread.currentThread().getName(), builder);
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            if(index >= 0) {
+                renderJson(arg1, builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            if(index >= 0) {
+                renderJson(arg2, builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    public static String formatJson(String pattern, Object... args) {
+        StringBuilder builder = acquire();
+        try {
+            appendJsonHeader(System.currentTimeMillis(), Thread.currentThread().getName(), builder);
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            for(int i = 0; i < args.length && index >= 0; i++) {
+                renderJson(args[i], builder);
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    /**
+     * Format with the typed arguments in JSON format, the primitives are appended without boxing
+     *
+     * @param timestamp the time of invocation
+     * @param thread the name of the traced thread
+     */
+    static String formatJson(String pattern, TraceArgs args, long timestamp, String thread) {
+        StringBuilder builder = acquire();
+        try {
+            appendJsonHeader(timestamp, thread, builder);
+            int index = appendUntilPlaceholder(pattern, 0, builder);
+            for(int i = 0; i < args.size && index >= 0; i++) {
+                long value = args.values[i];
+                switch(args.kinds[i]) {
+                    case TraceArgs.KIND_INT:
+                        builder.append((int)value);
+                        break;
+                    case TraceArgs.KIND_LONG:
+                        builder.append(value);
+                        break;
+                    case TraceArgs.KIND_FLOAT:
+                        appendJsonNumber(Float.intBitsToFloat((int)value), builder);
+                        break;
+                    case TraceArgs.KIND_DOUBLE:
+                        appendJsonNumber(Double.longBitsToDouble(value), builder);
+                        break;
+                    case TraceArgs.KIND_BOOLEAN:
+                        builder.append(value != 0);
+                        break;
+                    case TraceArgs.KIND_CHAR:
+                        builder.append('"');
+                        appendJsonChar((char)value, builder);
+                        builder.append('"');
+                        break;
+                    default:
+                        renderJson(args.objects[i], builder);
+                        break;
+                }
+                index = appendUntilPlaceholder(pattern, index, builder);
+            }
+            appendRest(pattern, index, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    /**
+     * @return whether the argument is written as a JSON literal instead of a string
+     */
+    static boolean isJsonLiteral(Object arg) {
+        if(arg instanceof Double) {
+            return !((Double)arg).isNaN() && !((Double)arg).isInfinite();
+        }
+        if(arg instanceof Float) {
+            return !((Float)arg).isNaN() && !((Float)arg).isInfinite();
+        }
+        return arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte
+                || arg instanceof Boolean || arg instanceof java.math.BigInteger || arg instanceof java.math.BigDecimal;
+    }
+
+    private static void appendJsonHeader(long timestamp, String thread, StringBuilder builder) {
+        builder.append("{\"timestamp\":").append(timestamp).append(",\"thread\":\"");
+        escapeJson(thread, builder);
+        builder.append("\",");
+    }
+
+    private static void appendJsonNumber(float value, StringBuilder builder) {
+        if(Float.isNaN(value) || Float.isInfinite(value)) {
+            builder.append('"').append(value).append('"');
+        }else{
+            builder.append(value);
+        }
+    }
+
+    private static void appendJsonNumber(double value, StringBuilder builder) {
+        if(Double.isNaN(value) || Double.isInfinite(value)) {
+            builder.append('"').append(value).append('"');
+        }else{
+            builder.append(value);
+        }
+    }
+
+    /**
+     * Render an argument as a JSON value, the numbers and the booleans are written as they are, and the others are
+     * rendered by the renderer into a JSON string
+     */
+    private static void renderJson(Object arg, StringBuilder builder) {
+        if(arg == null || isJsonLiteral(arg)) {
+            builder.append(arg);
+            return;
+        }
+        StringBuilder value = acquireValue();
+        try {
+            render(arg, value);
+            builder.append('"');
+            escapeJson(value, builder);
+            builder.append('"');
+        }finally{
+            releaseValue(value);
+        }
+    }
+
+    /**
+     * Append the escaped characters of the value to the builder in a single pass, the runs without escapes are
+     * appended at once
+     */
+    private static void escapeJson(CharSequence value, StringBuilder builder) {
+        int start = 0;
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\' || c < 0x20) {
+                builder.append(value, start, i);
+                appendJsonChar(c, builder);
+                start = i + 1;
+            }
+        }
+        builder.append(value, start, value.length());
+    }
+
+    private static void appendJsonChar(char c, StringBuilder builder) {
+        if(c == '"' || c == '\\') {
+            builder.append('\\').append(c);
+        }else if(c < 0x20) {
+            builder.append(CONTROL_CHAR_ESCAPES[c]);
+        }else{
+            builder.append(c);
+        }
+    }
+
+    /**
+     * Render a single argument
+     *
+     * @param arg
+     * @return
+     */
+    public static String render(Object arg) {
+        StringBuilder builder = acquire();
+        try {
+            render(arg, builder);
+            return builder.toString();
+        }finally{
+            release(builder);
+        }
+    }
+
+    /**
+     * @return the number of "{}" in the pattern
+     */
+    static int countPlaceholders(String pattern) {
+        int count = 0;
+        for(int index = pattern.indexOf("{}"); index >= 0; index = pattern.indexOf("{}", index + 2)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Render an argument into the builder, a failure of the renderer is rendered as "[FAILED toString()]"
+     */
+    static void render(Object arg, StringBuilder builder) {
+        int length = builder.length();
+        try {
+            renderer.render(arg, builder);
+        }catch(Throwable e) {
+            /* e.g. a failure of toString(), a concurrent modification or a StackOverflowError, same as SLF4J */
+            builder.setLength(length);
+            builder.append("[FAILED toString()]");
+        }
+    }
+
+    /**
+     * Append the pattern from the index until the next placeholder
+     *
+     * @return the index after the placeholder, or -1 if there is no more placeholder
+     */
+    private static int appendUntilPlaceholder(String pattern, int index, StringBuilder builder) {
+        int placeholder = pattern.indexOf("{}", index);
+        if(placeholder < 0) {
+            builder.append(pattern, index, pattern.length());
+            return -1;
+        }
+        builder.append(pattern, index, placeholder);
+        return placeholder + 2;
+    }
+
+    private static void appendRest(String pattern, int index, StringBuilder builder) {
+        if(index >= 0) {
+            builder.append(pattern, index, pattern.length());
+        }
+    }
+
+    /**
+     * Get the builder of current thread. A new builder is created if it is in use, e.g. when toString() of an argument
+     * calls another traced method while the message is being built.
+     */
+    private static StringBuilder acquire() {
+        BuilderHolder holder = HOLDER.get();
+        if(holder.inUse) {
+            return new StringBuilder(INITIAL_BUILDER_CAPACITY);
+        }
+        holder.inUse = true;
+        holder.builder.setLength(0);
+        return holder.builder;
+    }
+
+    /**
+     * Get the value builder of current thread, or a new builder if it is in use (same as acquire())
+     */
+    private static StringBuilder acquireValue() {
+        BuilderHolder holder = HOLDER.get();
+        if(holder.valueInUse) {
+            return new StringBuilder(INITIAL_BUILDER_CAPACITY);
+        }
+        holder.valueInUse = true;
+        holder.value.setLength(0);
+        return holder.value;
+    }
+
+    private static void releaseValue(StringBuilder value) {
+        BuilderHolder holder = HOLDER.get();
+        if(holder.value != value) {
+            return;
+        }
+        if(value.capacity() > MAX_KEPT_BUILDER_CAPACITY) {
+            holder.value = new StringBuilder(INITIAL_BUILDER_CAPACITY);
+        }
+        holder.valueInUse = false;
+    }
+
+    private static void release(StringBuilder builder) {
+        BuilderHolder holder = HOLDER.get();
+        if(holder.builder != builder) {
+            return;
+        }
+        if(builder.capacity() > MAX_KEPT_BUILDER_CAPACITY) {
+            holder.builder = new StringBuilder(INITIAL_BUILDER_CAPACITY);
+        }
+        holder.inUse = false;
+    }
+}
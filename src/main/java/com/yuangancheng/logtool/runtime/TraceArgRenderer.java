@@ -0,0 +1,17 @@
+package com.yuangancheng.logtool.runtime;
+
+/**
+ * The renderer of the arguments of traced methods. All the sinks render the arguments through the renderer set by
+ * TraceArgFormatter.setRenderer() (DefaultTraceArgRenderer by default), which may be replaced to render some types
+ * specially, e.g. to mask sensitive fields.
+ */
+public interface TraceArgRenderer {
+
+    /**
+     * Append the rendering of the argument to the builder, which must not be kept by the renderer
+     *
+     * @param arg the argument, may be null
+     * @param builder the reused builder of current thread
+     */
+    void render(Object arg, StringBuilder builder);
+}
@@ -0,0 +1,62 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Take cheap immutable snapshots of the mutable arguments captured in async mode, so that a later change of an
+ * argument by the traced method doesn't change what is rendered on the consumer thread.
+ * Only the containers are copied (shallow copy), and no toString() is called on the hot path.
+ */
+final class TraceArgSnapshot {
+
+    private TraceArgSnapshot() {
+    }
+
+    /**
+     * Replace the mutable arguments with their snapshots in place, the primitives are kept as they are
+     *
+     * @param args the arguments of a single event
+     */
+    static void snapshot(TraceArgs args) {
+        for(int i = 0; i < args.size; i++) {
+            if(args.kinds[i] == TraceArgs.KIND_OBJECT) {
+                args.objects[i] = snapshot(args.objects[i]);
+            }
+        }
+    }
+
+    private static Object snapshot(Object arg) {
+        if(arg == null || arg instanceof String || arg instanceof Number || arg instanceof Boolean
+                || arg instanceof Character || arg instanceof Enum) {
+            return arg;
+        }
+        try {
+            if(arg.getClass().isArray()) {
+                int length = Array.getLength(arg);
+                Object copy = Array.newInstance(arg.getClass().getComponentType(), length);
+                System.arraycopy(arg, 0, copy, 0, length);
+                return copy;
+            }
+            if(arg instanceof Collection) {
+                return new ArrayList<>((Collection<?>)arg);
+            }
+            if(arg instanceof Map) {
+                return new LinkedHashMap<>((Map<?, ?>)arg);
+            }
+            if(arg instanceof Date) {
+                return ((Date)arg).clone();
+            }
+            if(arg instanceof StringBuilder || arg instanceof StringBuffer) {
+                return arg.toString();
+            }
+        }catch(RuntimeException e) {
+            //e.g. ConcurrentModificationException, keep the reference instead
+        }
+        return arg;
+    }
+}
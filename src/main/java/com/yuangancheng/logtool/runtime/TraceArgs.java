@@ -0,0 +1,106 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.util.Arrays;
+
+/**
+ * The reusable typed argument slots of a trace event. The generated code knows the type of every parameter (and of
+ * the result) at compile time and calls the matching put method, so the primitives are stored without boxing and no
+ * array is allocated per call. The primitives are never boxed, neither by the binary encoding nor by TraceArgFormatter.
+ * The instances are owned by the slots of the async ring buffer or by the threads using the binary sink.
+ */
+public final class TraceArgs {
+
+    static final byte KIND_OBJECT = 0;
+    static final byte KIND_INT = 1;
+    static final byte KIND_LONG = 2;
+    static final byte KIND_FLOAT = 3;
+    static final byte KIND_DOUBLE = 4;
+    static final byte KIND_BOOLEAN = 5;
+    static final byte KIND_CHAR = 6;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final ThreadLocal<TraceArgs> LOCAL = ThreadLocal.withInitial(() -> new TraceArgs(null));
+
+    /* the slot of ring buffer owning the arguments, or null */
+    final TraceEvent event;
+    byte[] kinds = new byte[INITIAL_CAPACITY];
+    /* the primitives, float and double are stored by their raw bits */
+    long[] values = new long[INITIAL_CAPACITY];
+    Object[] objects = new Object[INITIAL_CAPACITY];
+    int size;
+    private boolean inUse;
+
+    TraceArgs(TraceEvent event) {
+        this.event = event;
+    }
+
+    /**
+     * Acquire the arguments of current thread. A new instance is created if the one of current thread is in use,
+     * e.g. when toString() of an argument calls another traced method while the arguments are rendered.
+     *
+     * @return the empty arguments, which must be released after use
+     */
+    static TraceArgs acquire() {
+        TraceArgs args = LOCAL.get();
+        if(args.inUse) {
+            return new TraceArgs(null);
+        }
+        args.inUse = true;
+        return args;
+    }
+
+    void release() {
+        clear();
+        inUse = false;
+    }
+
+    public TraceArgs putInt(int value) {
+        return put(KIND_INT, value);
+    }
+
+    public TraceArgs putLong(long value) {
+        return put(KIND_LONG, value);
+    }
+
+    public TraceArgs putFloat(float value) {
+        return put(KIND_FLOAT, Float.floatToRawIntBits(value));
+    }
+
+    public TraceArgs putDouble(double value) {
+        return put(KIND_DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    public TraceArgs putBoolean(boolean value) {
+        return put(KIND_BOOLEAN, value ? 1 : 0);
+    }
+
+    public TraceArgs putChar(char value) {
+        return put(KIND_CHAR, value);
+    }
+
+    public TraceArgs putObject(Object value) {
+        ensureCapacity();
+        kinds[size] = KIND_OBJECT;
+        objects[size++] = value;
+        return this;
+    }
+
+    private TraceArgs put(byte kind, long value) {
+        ensureCapacity();
+        kinds[size] = kind;
+        values[size++] = value;
+        return this;
+    }
+
+    private void ensureCapacity() {
+        if(size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            objects = Arrays.copyOf(objects, size * 2);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(objects, 0, size, null);
+        size = 0;
+    }
+}
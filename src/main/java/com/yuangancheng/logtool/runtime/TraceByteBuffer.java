@@ -0,0 +1,244 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A growable and reusable byte buffer with the encodings used by the trace sinks
+ * (varint/zigzag primitives and UTF-8 strings encoded without creating intermediate objects).
+ */
+final class TraceByteBuffer {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private byte[] bytes;
+    private int position;
+
+    TraceByteBuffer(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    void clear() {
+        position = 0;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void position(int position) {
+        this.position = position;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    /**
+     * Copy the content into the target buffer
+     *
+     * @param target the target buffer which must have enough remaining space
+     */
+    void writeTo(ByteBuffer target) {
+        target.put(bytes, 0, position);
+    }
+
+    /**
+     * Write the content into the channel, e.g. when it is larger than the buffer of a writer
+     *
+     * @param channel
+     * @throws IOException
+     */
+    void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(bytes, 0, position);
+        while(content.hasRemaining()) {
+            channel.write(content);
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, position);
+    }
+
+    void putBytes(byte[] value) {
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, bytes, position, value.length);
+        position += value.length;
+    }
+
+    /**
+     * Put the ASCII digits of a number in decimal
+     *
+     * @param value
+     */
+    void putDecimal(long value) {
+        if(value == Long.MIN_VALUE) {
+            putUtf8("-9223372036854775808");
+            return;
+        }
+        ensureCapacity(20);
+        if(value < 0) {
+            bytes[position++] = '-';
+            value = -value;
+        }
+        int digitNum = 1;
+        for(long rest = value / 10; rest != 0; rest /= 10) {
+            digitNum++;
+        }
+        for(int i = position + digitNum - 1; i >= position; i--) {
+            bytes[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        position += digitNum;
+    }
+
+    void putByte(int value) {
+        ensureCapacity(1);
+        bytes[position++] = (byte)value;
+    }
+
+    void putVarint(int value) {
+        ensureCapacity(5);
+        while((value & ~0x7F) != 0) {
+            bytes[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte)value;
+    }
+
+    void putVarlong(long value) {
+        ensureCapacity(10);
+        while((value & ~0x7FL) != 0) {
+            bytes[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte)value;
+    }
+
+    void putZigzagInt(int value) {
+        putVarint((value << 1) ^ (value >> 31));
+    }
+
+    void putZigzagLong(long value) {
+        putVarlong((value << 1) ^ (value >> 63));
+    }
+
+    void putLong(long value) {
+        ensureCapacity(8);
+        for(int i = 7; i >= 0; i--) {
+            bytes[position++] = (byte)(value >>> (i * 8));
+        }
+    }
+
+    void putInt(int value) {
+        ensureCapacity(4);
+        for(int i = 3; i >= 0; i--) {
+            bytes[position++] = (byte)(value >>> (i * 8));
+        }
+    }
+
+    /**
+     * Put a string as its UTF-8 byte length (varint) followed by its UTF-8 bytes
+     *
+     * @param value
+     */
+    void putString(CharSequence value) {
+        int length = utf8Length(value);
+        putVarint(length);
+        putUtf8(value);
+    }
+
+    /**
+     * Put the UTF-8 bytes of a string without its length
+     *
+     * @param value
+     */
+    void putUtf8(CharSequence value) {
+        int length = value.length();
+        ensureCapacity(length * 3);
+        for(int i = 0; i < length; i++) {
+            i = putUtf8Char(value, i);
+        }
+    }
+
+    /**
+     * Put a string as a quoted JSON string, the quotes, the backslashes and the control characters are escaped
+     *
+     * @param value
+     */
+    void putJsonString(CharSequence value) {
+        int length = value.length();
+        ensureCapacity(length * 6 + 2);
+        bytes[position++] = '"';
+        for(int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\') {
+                bytes[position++] = '\\';
+                bytes[position++] = (byte)c;
+            }else if(c < 0x20) {
+                bytes[position++] = '\\';
+                bytes[position++] = 'u';
+                bytes[position++] = '0';
+                bytes[position++] = '0';
+                bytes[position++] = (byte)HEX_DIGITS[c >> 4];
+                bytes[position++] = (byte)HEX_DIGITS[c & 0xF];
+            }else{
+                i = putUtf8Char(value, i);
+            }
+        }
+        bytes[position++] = '"';
+    }
+
+    /**
+     * Put the UTF-8 bytes of the character at the index (and of its low surrogate)
+     *
+     * @return the index of the last character put
+     */
+    private int putUtf8Char(CharSequence value, int i) {
+        char c = value.charAt(i);
+        if(c < 0x80) {
+            bytes[position++] = (byte)c;
+        }else if(c < 0x800) {
+            bytes[position++] = (byte)(0xC0 | (c >> 6));
+            bytes[position++] = (byte)(0x80 | (c & 0x3F));
+        }else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            bytes[position++] = (byte)(0xF0 | (codePoint >> 18));
+            bytes[position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[position++] = (byte)(0x80 | (codePoint & 0x3F));
+        }else{
+            bytes[position++] = (byte)(0xE0 | (c >> 12));
+            bytes[position++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            bytes[position++] = (byte)(0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    static int utf8Length(CharSequence value) {
+        int length = value.length();
+        int result = 0;
+        for(int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if(c < 0x80) {
+                result += 1;
+            }else if(c < 0x800) {
+                result += 2;
+            }else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                result += 4;
+                i++;
+            }else{
+                result += 3;
+            }
+        }
+        return result;
+    }
+
+    private void ensureCapacity(int extra) {
+        if(position + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, position + extra));
+        }
+    }
+}
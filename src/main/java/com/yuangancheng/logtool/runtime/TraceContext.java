@@ -0,0 +1,127 @@
+package com.yuangancheng.logtool.runtime;
+
+import org.slf4j.MDC;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * The per-thread trace context which is used by the generated code to get the request id.
+ * The request id is resolved once per request and is cached until the request of current thread changes or ends. It
+ * is also mirrored into SLF4J MDC with the request id name as the key, which is removed with the cache, so a pooled
+ * thread neither logs the request id of a finished request nor keeps its request alive.
+ */
+public final class TraceContext {
+
+    private static final boolean SERVLET_PRESENT = isPresent("org.springframework.web.context.request.RequestContextHolder")
+            && isPresent("javax.servlet.http.HttpServletRequest");
+    private static final ThreadLocal<Holder> HOLDER = ThreadLocal.withInitial(Holder::new);
+
+    private TraceContext() {
+    }
+
+    private static final class Holder {
+        private String boundReqId;
+        private Object requestAttributes;
+        private String reqIdName;
+        private String reqId = "";
+    }
+
+    /**
+     * Get the request id of current thread
+     *
+     * @param reqIdName the name of request header field which contains the request id
+     * @return the request id, or an empty string if there is no request id
+     */
+    public static String getReqId(String reqIdName) {
+        Holder holder = HOLDER.get();
+        if(holder.boundReqId != null) {
+            return holder.boundReqId;
+        }
+        if(!SERVLET_PRESENT) {
+            return "";
+        }
+        return ServletReqIdResolver.resolve(holder, reqIdName);
+    }
+
+    /**
+     * Bind a request id to current thread at the boundary of a request (e.g. a MQ consumer or a scheduled task).
+     * The bound request id takes precedence over the one in servlet request header until clear() is called.
+     *
+     * @param reqIdName the name of request id (used as the MDC key)
+     * @param reqId the request id
+     */
+    public static void bind(String reqIdName, String reqId) {
+        Holder holder = HOLDER.get();
+        holder.boundReqId = reqId == null ? "" : reqId;
+        MDC.put(reqIdName, holder.boundReqId);
+    }
+
+    /**
+     * Clear the request id of current thread at the end of a request
+     *
+     * @param reqIdName the name of request id (used as the MDC key)
+     */
+    public static void clear(String reqIdName) {
+        HOLDER.remove();
+        MDC.remove(reqIdName);
+    }
+
+    private static boolean isPresent(String className) {
+        try {
+            Class.forName(className, false, TraceContext.class.getClassLoader());
+            return true;
+        }catch(ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Only loaded when Spring Web is present, so TraceContext itself works without it
+     */
+    private static final class ServletReqIdResolver {
+
+        private static final String DESTRUCTION_CALLBACK_NAME = TraceContext.class.getName() + ".reqId";
+
+        private static String resolve(Holder holder, String reqIdName) {
+            RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+            if(!(requestAttributes instanceof ServletRequestAttributes)) {
+                /* e.g. the destruction callback of the last request was not called on this thread */
+                evict(holder);
+                return "";
+            }
+
+            /* the request attributes are created once per request, so they identify the current request */
+            if(holder.requestAttributes == requestAttributes && reqIdName.equals(holder.reqIdName)) {
+                return holder.reqId;
+            }
+            evict(holder);
+            String reqId = ((ServletRequestAttributes)requestAttributes).getRequest().getHeader(reqIdName);
+            holder.requestAttributes = requestAttributes;
+            holder.reqIdName = reqIdName;
+            holder.reqId = reqId == null ? "" : reqId;
+            MDC.put(reqIdName, holder.reqId);
+            /* called when the request is completed, on the thread which completes it */
+            requestAttributes.registerDestructionCallback(DESTRUCTION_CALLBACK_NAME, () -> {
+                Holder current = HOLDER.get();
+                if(current.requestAttributes == requestAttributes) {
+                    evict(current);
+                }
+            }, RequestAttributes.SCOPE_REQUEST);
+            return holder.reqId;
+        }
+
+        /**
+         * Remove the cached request id and its MDC entry
+         */
+        private static void evict(Holder holder) {
+            if(holder.requestAttributes == null) {
+                return;
+            }
+            MDC.remove(holder.reqIdName);
+            holder.requestAttributes = null;
+            holder.reqIdName = null;
+            holder.reqId = "";
+        }
+    }
+}
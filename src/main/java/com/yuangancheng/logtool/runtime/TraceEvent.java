@@ -0,0 +1,38 @@
+package com.yuangancheng.logtool.runtime;
+
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+import org.slf4j.Logger;
+
+/**
+ * A preallocated slot of TraceEventRingBuffer. It only holds the references of a traced method's log statement, and
+ * the rendering is deferred to the consumer thread.
+ */
+final class TraceEvent {
+
+    /* the sequence of the slot, see TraceEventRingBuffer */
+    volatile long sequence;
+    Logger logger;
+    LogLevelEnum level;
+    /* the compile-time constant pattern which identifies the method and the phase (in/out) */
+    String pattern;
+    /* the arguments (including the request id if any), reused by every event published into the slot */
+    final TraceArgs args = new TraceArgs(this);
+    boolean snapshotArgs;
+    /* whether the pattern is in JSON format, which also writes the name of the traced thread */
+    boolean json;
+    /* the traced thread, whose name is resolved on the consumer thread (getName() allocates a String on JDK 8) */
+    Thread thread;
+    long timestamp;
+
+    TraceEvent(long sequence) {
+        this.sequence = sequence;
+    }
+
+    void clear() {
+        logger = null;
+        level = null;
+        pattern = null;
+        thread = null;
+        args.clear();
+    }
+}
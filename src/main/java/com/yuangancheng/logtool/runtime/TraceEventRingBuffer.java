@@ -0,0 +1,86 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, preallocated, lock-free ring buffer with multiple producers and a single consumer.
+ * Every slot carries a sequence: a producer may claim the slot at position p when its sequence equals p, and the
+ * consumer may take it when its sequence equals p + 1.
+ */
+final class TraceEventRingBuffer {
+
+    private final TraceEvent[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    /* only written by the consumer thread */
+    private volatile long head;
+
+    /**
+     * @param capacity the capacity of ring buffer, rounded up to a power of two
+     */
+    TraceEventRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new TraceEvent[size];
+        for(int i = 0; i < size; i++) {
+            slots[i] = new TraceEvent(i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Claim a free slot for publishing. The caller must fill the slot and then call publish().
+     *
+     * @return the claimed slot, or null if the ring buffer is full
+     */
+    TraceEvent tryClaim() {
+        long position = tail.get();
+        while(true) {
+            TraceEvent slot = slots[(int)position & mask];
+            long difference = slot.sequence - position;
+            if(difference == 0) {
+                if(tail.compareAndSet(position, position + 1)) {
+                    return slot;
+                }
+                position = tail.get();
+            }else if(difference < 0) {
+                return null;
+            }else{
+                position = tail.get();
+            }
+        }
+    }
+
+    void publish(TraceEvent slot) {
+        slot.sequence = slot.sequence + 1;
+    }
+
+    /**
+     * Take the next published slot (consumer thread only). The caller must call release() after processing it.
+     *
+     * @return the next published slot, or null if the ring buffer is empty
+     */
+    TraceEvent poll() {
+        TraceEvent slot = slots[(int)head & mask];
+        if(slot.sequence != head + 1) {
+            return null;
+        }
+        return slot;
+    }
+
+    void release(TraceEvent slot) {
+        slot.clear();
+        slot.sequence = head + slots.length;
+        head++;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the approximate number of events waiting for the consumer
+     */
+    int size() {
+        return (int)Math.max(0, tail.get() - head);
+    }
+}
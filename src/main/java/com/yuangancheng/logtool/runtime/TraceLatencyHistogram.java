@@ -0,0 +1,148 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency histogram of a traced method (@TraceLog(latency = true) or @EnableTraceLog(latency = true)), which
+ * records the elapsed nanoseconds of every invocation, including the void ones and the ones exiting by exceptions.
+ * The histogram is log-linear in a fixed memory: the values below 16 have their own buckets, and every power-of-two
+ * range above is split into 16 linear buckets, so a reported value is at most 1/16 larger than the recorded one.
+ * Recording is lock-free and allocation-free. The histograms are keyed by "className#methodName" and can be queried
+ * at runtime, e.g. TraceLatencyHistogram.get("com.example.Dog#bark").getValueAtPercentile(99).
+ */
+public final class TraceLatencyHistogram {
+
+    private static final ConcurrentMap<String, TraceLatencyHistogram> histogramMap = new ConcurrentHashMap<>();
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_NUM = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_NUM = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_NUM;
+
+    private final String key;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NUM);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    private TraceLatencyHistogram(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the histogram of the key
+     *
+     * @param key "className#methodName"
+     * @return
+     */
+    public static TraceLatencyHistogram register(String key) {
+        return histogramMap.computeIfAbsent(key, TraceLatencyHistogram::new);
+    }
+
+    /**
+     * @param key "className#methodName"
+     * @return the histogram of the key, or null if the method has not been loaded
+     */
+    public static TraceLatencyHistogram get(String key) {
+        return histogramMap.get(key);
+    }
+
+    /**
+     * @return all the histograms by their keys
+     */
+    public static Map<String, TraceLatencyHistogram> getAll() {
+        return Collections.unmodifiableMap(histogramMap);
+    }
+
+    /**
+     * Record the elapsed time of an invocation
+     *
+     * @param nanos the elapsed nanoseconds
+     */
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        buckets.getAndIncrement(getBucketIndex(nanos));
+        sum.add(nanos);
+        long curMax = max.get();
+        while(nanos > curMax && !max.compareAndSet(curMax, nanos)) {
+            curMax = max.get();
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for(int i = 0; i < BUCKET_NUM; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double)sum.sum() / count;
+    }
+
+    /**
+     * Get the value at the percentile, which is the highest value of the bucket containing it
+     *
+     * @param percentile between 0 and 100
+     * @return the value in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = new long[BUCKET_NUM];
+        long total = 0;
+        for(int i = 0; i < BUCKET_NUM; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if(total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_NUM; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return Math.min(getBucketHighestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return key + "{count: " + getCount() + ", mean: " + (long)getMean() + "ns, p50: " + getValueAtPercentile(50) + "ns, p90: " + getValueAtPercentile(90)
+                + "ns, p99: " + getValueAtPercentile(99) + "ns, max: " + getMax() + "ns}";
+    }
+
+    private static int getBucketIndex(long value) {
+        if(value < SUB_BUCKET_NUM) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_NUM - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_NUM + subBucket;
+    }
+
+    private static long getBucketHighestValue(int index) {
+        if(index < SUB_BUCKET_NUM) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_NUM + SUB_BUCKET_BITS - 1;
+        long lowest = (long)(SUB_BUCKET_NUM + index % SUB_BUCKET_NUM) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
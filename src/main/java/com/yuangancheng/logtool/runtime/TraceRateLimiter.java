@@ -0,0 +1,137 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * The rate limiter of a traced method (@TraceLog(maxPerSecond = ...) or @EnableTraceLog(maxPerSecond = ...)), which
+ * allows at most maxPerSecond traced invocations in every one-second window.
+ * The budget of a window is split into stripes, each is a (window, count) pair packed into one padded long and
+ * updated by CAS, so the threads hitting the same method mostly contend on their own stripes. A thread whose stripe
+ * is exhausted borrows from the other stripes before giving up, so the whole budget is still available to a few threads.
+ * The limiters are shared by key (the method-level switch key, or "className#methodName"). The compile-time limit
+ * can be overridden by the property "<key>.maxPerSecond" of the system properties or of the configuration source of
+ * TraceSwitchRegistry.refresh() (which reloads the limits as well as the switches), and by setMaxPerSecond() at runtime.
+ */
+public final class TraceRateLimiter {
+
+    private static final ConcurrentMap<String, TraceRateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
+    /* one stripe per 128 bytes to avoid false sharing */
+    private static final int PADDING = 16;
+    private static final int MAX_STRIPE_NUM = 64;
+    private static final long NANOS_PER_WINDOW = 1_000_000_000L;
+
+    private final int stripeNum;
+    private final int stripeMask;
+    /* the stripe i is located at i * PADDING, its high 32 bits are the window and its low 32 bits are the count */
+    private final AtomicLongArray stripes;
+    private volatile int maxPerSecond;
+
+    private TraceRateLimiter(int maxPerSecond) {
+        int stripeNum = 1;
+        while(stripeNum < Runtime.getRuntime().availableProcessors() && stripeNum < MAX_STRIPE_NUM) {
+            stripeNum <<= 1;
+        }
+        this.stripeNum = stripeNum;
+        this.stripeMask = stripeNum - 1;
+        this.stripes = new AtomicLongArray(stripeNum * PADDING);
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Get the rate limiter of the key. The limit of an existing rate limiter is kept.
+     *
+     * @param key the method-level switch key or "className#methodName"
+     * @param maxPerSecond the compile-time limit, non-positive means unlimited
+     * @return
+     */
+    public static TraceRateLimiter register(String key, int maxPerSecond) {
+        return rateLimiterMap.computeIfAbsent(key, k -> {
+            Integer configured = parse(TraceSwitchRegistry.getConfig(k + ".maxPerSecond"));
+            return new TraceRateLimiter(configured != null ? configured : maxPerSecond);
+        });
+    }
+
+    /**
+     * Reload the limits of all the registered rate limiters, called by TraceSwitchRegistry.refresh(). The limits whose
+     * values are absent or invalid are kept unchanged.
+     *
+     * @param source the function from "<key>.maxPerSecond" to its value, or null if it is absent
+     */
+    static void refresh(Function<String, String> source) {
+        rateLimiterMap.forEach((key, rateLimiter) -> {
+            Integer configured = parse(source.apply(key + ".maxPerSecond"));
+            if(configured != null) {
+                rateLimiter.maxPerSecond = configured;
+            }
+        });
+    }
+
+    private static Integer parse(String value) {
+        if(value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        }catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Override the limit of the key at runtime
+     *
+     * @param key the method-level switch key or "className#methodName"
+     * @param maxPerSecond the limit, non-positive means unlimited
+     */
+    public static void setMaxPerSecond(String key, int maxPerSecond) {
+        register(key, maxPerSecond).maxPerSecond = maxPerSecond;
+    }
+
+    public static int getMaxPerSecond(String key) {
+        TraceRateLimiter rateLimiter = rateLimiterMap.get(key);
+        return rateLimiter == null ? 0 : rateLimiter.maxPerSecond;
+    }
+
+    /**
+     * @return true if the current invocation is within the limit and should be traced
+     */
+    public boolean tryAcquire() {
+        int max = maxPerSecond;
+        if(max <= 0) {
+            return true;
+        }
+        int window = (int)(System.nanoTime() / NANOS_PER_WINDOW);
+        int home = (int)Thread.currentThread().getId() & stripeMask;
+        for(int i = 0; i < stripeNum; i++) {
+            int stripe = (home + i) & stripeMask;
+            if(tryAcquire(stripe, window, max / stripeNum + (stripe < max % stripeNum ? 1 : 0))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean tryAcquire(int stripe, int window, int limit) {
+        if(limit == 0) {
+            return false;
+        }
+        int index = stripe * PADDING;
+        while(true) {
+            long state = stripes.get(index);
+            long next;
+            if((int)(state >>> 32) != window) {
+                next = ((long)window << 32) | 1;
+            }else if((int)state < limit) {
+                next = state + 1;
+            }else{
+                return false;
+            }
+            if(stripes.compareAndSet(index, state, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * The sampler of a traced method (@TraceLog(sampleRate = ...)). The sampling decision is made once per invocation
+ * without allocation, so the parameters and the result of an invocation are always traced together.
+ * Every traced method has a sampler, whose rate is 1 unless it is specified. The samplers are shared by key (the
+ * method-level switch key, or "className#methodName"). The compile-time rate can be overridden by the property
+ * "<key>.sampleRate" of the system properties or of the configuration source of TraceSwitchRegistry.refresh() (which
+ * reloads the rates as well as the switches), and by setSampleRate() at runtime.
+ */
+public final class TraceSampler {
+
+    private static final ConcurrentMap<String, TraceSampler> samplerMap = new ConcurrentHashMap<>();
+
+    private volatile double sampleRate;
+
+    private TraceSampler(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Get the sampler of the key. The rate of an existing sampler (e.g. overridden before the class is loaded) is kept.
+     *
+     * @param key the method-level switch key or "className#methodName"
+     * @param sampleRate the compile-time sample rate
+     * @return
+     */
+    public static TraceSampler register(String key, double sampleRate) {
+        return samplerMap.computeIfAbsent(key, k -> {
+            Double configured = parse(TraceSwitchRegistry.getConfig(k + ".sampleRate"));
+            return new TraceSampler(configured != null ? configured : sampleRate);
+        });
+    }
+
+    /**
+     * Reload the rates of all the registered samplers, called by TraceSwitchRegistry.refresh(). The rates whose values
+     * are absent or invalid are kept unchanged.
+     *
+     * @param source the function from "<key>.sampleRate" to its value, or null if it is absent
+     */
+    static void refresh(Function<String, String> source) {
+        samplerMap.forEach((key, sampler) -> {
+            Double configured = parse(source.apply(key + ".sampleRate"));
+            if(configured != null) {
+                sampler.sampleRate = configured;
+            }
+        });
+    }
+
+    /**
+     * @return the sample rate, or null if it is absent or not between 0 and 1
+     */
+    private static Double parse(String value) {
+        if(value == null) {
+            return null;
+        }
+        try {
+            double sampleRate = Double.parseDouble(value.trim());
+            return sampleRate >= 0 && sampleRate <= 1 ? sampleRate : null;
+        }catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Override the sample rate of the key at runtime
+     *
+     * @param key the method-level switch key or "className#methodName"
+     * @param sampleRate the sample rate between 0 and 1
+     */
+    public static void setSampleRate(String key, double sampleRate) {
+        if(sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("The sample rate must be between 0 and 1: " + sampleRate);
+        }
+        register(key, sampleRate).sampleRate = sampleRate;
+    }
+
+    public static double getSampleRate(String key) {
+        TraceSampler sampler = samplerMap.get(key);
+        return sampler == null ? 1 : sampler.sampleRate;
+    }
+
+    /**
+     * @return true if the current invocation should be traced
+     */
+    public boolean sample() {
+        double rate = sampleRate;
+        return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+}
@@ -0,0 +1,140 @@
+package com.yuangancheng.logtool.runtime;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+/**
+ * The registry of the class/method-level switches (@EnableTraceLog(enableClassLevelSwitch = true, switchKey = ...)
+ * and @TraceLog(enableMethodLevelSwitch = true, switchKey = ...)).
+ * Every switch key is registered once when a class using it is initialized, and the generated code keeps the returned
+ * index in a final field, so checking a switch is a single volatile read of a shared flag array. A toggle takes effect
+ * immediately for all the threads and all the instances, including the ones created by 'new'.
+ * The initial value of a switch is read from the system property of its key ("1"/"true" or "0"/"false"), and it is on
+ * by default. Use set() to toggle a switch, or refresh() to reload all the switches from a configuration source, e.g.
+ * TraceSwitchRegistry.refresh(environment::getProperty) in a Spring application. The last configuration source is
+ * kept, so the switches registered later (by the classes loaded lazily) read their initial values from it as well.
+ */
+public final class TraceSwitchRegistry {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /* guarded by the lock of the class, the array is replaced (never shrunk) when it is full */
+    private static final Map<String, Integer> keyIndexMap = new HashMap<>();
+    private static volatile AtomicIntegerArray flags = new AtomicIntegerArray(INITIAL_CAPACITY);
+    /* the source of last refresh(), or null */
+    private static Function<String, String> refreshSource;
+
+    private TraceSwitchRegistry() {
+    }
+
+    /**
+     * Register the switch key
+     *
+     * @param key the switch key
+     * @return the index of the switch
+     */
+    public static synchronized int register(String key) {
+        Integer index = keyIndexMap.get(key);
+        if(index != null) {
+            return index;
+        }
+        index = keyIndexMap.size();
+        if(index == flags.length()) {
+            AtomicIntegerArray newFlags = new AtomicIntegerArray(flags.length() * 2);
+            for(int i = 0; i < index; i++) {
+                newFlags.set(i, flags.get(i));
+            }
+            flags = newFlags;
+        }
+        Boolean on = parse(getConfig(key));
+        flags.set(index, on == null || on ? 1 : 0);
+        keyIndexMap.put(key, index);
+        return index;
+    }
+
+    /**
+     * @param index the index returned by register()
+     * @return true if the switch is on
+     */
+    public static boolean isOn(int index) {
+        return flags.get(index) != 0;
+    }
+
+    /**
+     * Toggle the switch of the key. A switch which has not been registered is registered first.
+     *
+     * @param key the switch key
+     * @param on
+     */
+    public static synchronized void set(String key, boolean on) {
+        /* the array of flags may be replaced by the registration */
+        int index = register(key);
+        flags.set(index, on ? 1 : 0);
+    }
+
+    /**
+     * @param key the switch key
+     * @return true if the switch is on or has not been registered
+     */
+    public static synchronized boolean get(String key) {
+        Integer index = keyIndexMap.get(key);
+        return index == null || isOn(index);
+    }
+
+    /**
+     * Reload all the registered switches (and the limits of TraceRateLimiter and the rates of TraceSampler) from a
+     * configuration source. The switches whose values are absent or invalid are kept unchanged.
+     *
+     * @param source the function from a switch key to its value ("1"/"true" or "0"/"false"), or null if it is absent
+     */
+    public static synchronized void refresh(Function<String, String> source) {
+        refreshSource = source;
+        for(Map.Entry<String, Integer> entry : keyIndexMap.entrySet()) {
+            Boolean on = parse(source.apply(entry.getKey()));
+            if(on != null) {
+                flags.set(entry.getValue(), on ? 1 : 0);
+            }
+        }
+        TraceRateLimiter.refresh(source);
+        TraceSampler.refresh(source);
+    }
+
+    /**
+     * @return the states of all the registered switches by their keys
+     */
+    public static synchronized Map<String, Boolean> getAll() {
+        Map<String, Boolean> result = new HashMap<>();
+        keyIndexMap.forEach((key, index) -> result.put(key, isOn(index)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Get a configuration value from the source of last refresh(), or from the system properties if it is absent there
+     *
+     * @param key
+     * @return the value, or null if it is absent
+     */
+    static synchronized String getConfig(String key) {
+        String value = refreshSource == null ? null : refreshSource.apply(key);
+        return value != null ? value : System.getProperty(key);
+    }
+
+    private static Boolean parse(String value) {
+        if(value == null) {
+            return null;
+        }
+        switch(value.trim()) {
+            case "1":
+            case "true":
+                return true;
+            case "0":
+            case "false":
+                return false;
+            default:
+                return null;
+        }
+    }
+}
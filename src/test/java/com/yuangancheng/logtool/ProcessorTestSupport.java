@@ -0,0 +1,262 @@
+package com.yuangancheng.logtool;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TreeScanner;
+import com.yuangancheng.logtool.processor.EnableTraceLogProcessor;
+import org.slf4j.Logger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Compile sources with the processor in-process and inspect the compiled classes.
+ * The processor is loaded by name from the classes of the project, so it shares the class loader of javac.
+ */
+public final class ProcessorTestSupport {
+
+    private static final String PROCESSOR_NAME = EnableTraceLogProcessor.class.getName();
+
+    private ProcessorTestSupport() {
+    }
+
+    /**
+     * @return the classes of the project (without the META-INF resources, which are copied at prepare-package)
+     */
+    public static Path getProjectClasses() {
+        return getLocation(EnableTraceLogProcessor.class);
+    }
+
+    /**
+     * @return the classpath of the compiled sources: the classes of the project and SLF4J
+     */
+    public static String getClasspath() {
+        return getProjectClasses() + File.pathSeparator + getLocation(Logger.class);
+    }
+
+    /**
+     * Compile the sources in current thread
+     *
+     * @param sources the class name -> the source
+     * @param outputDir
+     * @param withProcessor whether the processor runs, otherwise no processor runs at all
+     * @return the CPU time of compiling in nanoseconds
+     */
+    public static long compile(Map<String, String> sources, Path outputDir, boolean withProcessor) throws IOException {
+        JavaCompiler compiler = getCompiler();
+        StringBuilder errors = new StringBuilder();
+        try(StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            List<String> options = getOptions(withProcessor);
+            options.addAll(Arrays.asList("-d", outputDir.toString()));
+            com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            long startNanos = threadMXBean.getCurrentThreadCpuTime();
+            boolean success = compiler.getTask(null, fileManager, errorCollector(errors), options, null, getSourceFiles(sources)).call();
+            long elapsedNanos = threadMXBean.getCurrentThreadCpuTime() - startNanos;
+            if(!success) {
+                throw new IllegalStateException("Failed to compile the sources:\n" + errors);
+            }
+            return elapsedNanos;
+        }
+    }
+
+    /**
+     * Parse and analyze the sources (after the processor has rewritten them) without generating classes
+     *
+     * @param sources the class name -> the source
+     * @param withProcessor whether the processor runs, otherwise no processor runs at all
+     * @return the number of the nodes of the analyzed trees
+     */
+    public static long countTreeNodes(Map<String, String> sources, boolean withProcessor) throws IOException {
+        JavaCompiler compiler = getCompiler();
+        StringBuilder errors = new StringBuilder();
+        try(StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            JavacTask task = (JavacTask)compiler.getTask(null, fileManager, errorCollector(errors), getOptions(withProcessor), null, getSourceFiles(sources));
+            Iterable<? extends CompilationUnitTree> units = task.parse();
+            task.analyze();
+            if(errors.length() > 0) {
+                throw new IllegalStateException("Failed to analyze the sources:\n" + errors);
+            }
+            AtomicLong count = new AtomicLong();
+            TreeScanner<Void, Void> counter = new TreeScanner<Void, Void>() {
+                @Override
+                public Void scan(Tree tree, Void unused) {
+                    if(tree != null) {
+                        count.incrementAndGet();
+                    }
+                    return super.scan(tree, unused);
+                }
+            };
+            for(CompilationUnitTree unit : units) {
+                counter.scan(unit, null);
+            }
+            return count.get();
+        }
+    }
+
+    /**
+     * Get the length of the bytecode of a method in a class file
+     *
+     * @param classFile
+     * @param methodName
+     * @return the length of the Code attribute of the first method with the name, or -1 if there is no such method
+     */
+    public static int getCodeLength(Path classFile, String methodName) throws IOException {
+        try(InputStream inputStream = Files.newInputStream(classFile); DataInputStream input = new DataInputStream(inputStream)) {
+            input.readInt();
+            input.readUnsignedShort();
+            input.readUnsignedShort();
+            int constantPoolCount = input.readUnsignedShort();
+            String[] utf8Constants = new String[constantPoolCount];
+            for(int i = 1; i < constantPoolCount; i++) {
+                int tag = input.readUnsignedByte();
+                switch(tag) {
+                    case 1:
+                        utf8Constants[i] = input.readUTF();
+                        break;
+                    case 7:
+                    case 8:
+                    case 16:
+                        input.skipBytes(2);
+                        break;
+                    case 15:
+                        input.skipBytes(3);
+                        break;
+                    case 5:
+                    case 6:
+                        /* a long or a double takes two entries */
+                        input.skipBytes(8);
+                        i++;
+                        break;
+                    default:
+                        input.skipBytes(4);
+                        break;
+                }
+            }
+            input.skipBytes(6);
+            input.skipBytes(2 * input.readUnsignedShort());
+            int fieldCount = input.readUnsignedShort();
+            for(int i = 0; i < fieldCount; i++) {
+                input.skipBytes(6);
+                skipAttributes(input);
+            }
+            int methodCount = input.readUnsignedShort();
+            for(int i = 0; i < methodCount; i++) {
+                input.skipBytes(2);
+                String name = utf8Constants[input.readUnsignedShort()];
+                input.skipBytes(2);
+                int attributeCount = input.readUnsignedShort();
+                for(int j = 0; j < attributeCount; j++) {
+                    String attributeName = utf8Constants[input.readUnsignedShort()];
+                    int attributeLength = input.readInt();
+                    if(name.equals(methodName) && attributeName.equals("Code")) {
+                        input.skipBytes(4);
+                        return input.readInt();
+                    }
+                    input.skipBytes(attributeLength);
+                }
+            }
+            return -1;
+        }
+    }
+
+    public static void deleteRecursively(Path path) throws IOException {
+        if(!Files.exists(path)) {
+            return;
+        }
+        try(Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static JavaCompiler getCompiler() {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null) {
+            throw new IllegalStateException("No system Java compiler, please run with a JDK");
+        }
+        return compiler;
+    }
+
+    private static List<String> getOptions(boolean withProcessor) {
+        List<String> options = new ArrayList<>(Arrays.asList("-classpath", getClasspath(), "-nowarn"));
+        if(withProcessor) {
+            options.addAll(Arrays.asList("-processorpath", getProjectClasses().toString(), "-processor", PROCESSOR_NAME));
+        }else{
+            options.add("-proc:none");
+        }
+        return options;
+    }
+
+    private static List<JavaFileObject> getSourceFiles(Map<String, String> sources) {
+        List<JavaFileObject> sourceFiles = new ArrayList<>();
+        for(Map.Entry<String, String> source : sources.entrySet()) {
+            sourceFiles.add(new SourceFile(source.getKey(), source.getValue()));
+        }
+        return sourceFiles;
+    }
+
+    private static DiagnosticListener<JavaFileObject> errorCollector(StringBuilder errors) {
+        return diagnostic -> {
+            if(diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.append(diagnostic).append('\n');
+            }
+        };
+    }
+
+    private static void skipAttributes(DataInputStream input) throws IOException {
+        int attributeCount = input.readUnsignedShort();
+        for(int i = 0; i < attributeCount; i++) {
+            input.skipBytes(2);
+            input.skipBytes(input.readInt());
+        }
+    }
+
+    /**
+     * @param clazz
+     * @return the class directory or the jar of the class
+     */
+    public static Path getLocation(Class<?> clazz) {
+        try {
+            return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+        }catch(URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final String content;
+
+        SourceFile(String className, String content) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.yuangancheng.logtool.ast;
+
+import com.yuangancheng.logtool.ProcessorTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The traced method generated by SINGLE_EXIT has a constant size, which stays below the inlining limit of hot methods
+ */
+public class SingleExitStrategyTest {
+
+    /* the default -XX:FreqInlineSize of HotSpot on x86_64 */
+    private static final int FREQ_INLINE_SIZE = 325;
+    private static final String CLASS_NAME = "fixture.SingleExitFixture";
+
+    private Path outputDir;
+
+    @Before
+    public void setUp() throws Exception {
+        outputDir = Files.createTempDirectory("logtool-single-exit");
+        ProcessorTestSupport.compile(Collections.singletonMap(CLASS_NAME, generateFixture()), outputDir, true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ProcessorTestSupport.deleteRecursively(outputDir);
+    }
+
+    @Test
+    public void tracedMethodIsBelowFreqInlineSize() throws Exception {
+        int codeLength = getCodeLength("manyReturns");
+        assertTrue("SINGLE_EXIT method has " + codeLength + " bytes of bytecode", codeLength > 0 && codeLength < FREQ_INLINE_SIZE);
+    }
+
+    @Test
+    public void tracedMethodSizeDoesNotDependOnReturns() throws Exception {
+        assertEquals(getCodeLength("twoReturns"), getCodeLength("manyReturns"));
+        assertTrue(getCodeLength("perReturn") > getCodeLength("manyReturns"));
+    }
+
+    private int getCodeLength(String methodName) throws Exception {
+        return ProcessorTestSupport.getCodeLength(outputDir.resolve(CLASS_NAME.replace('.', '/') + ".class"), methodName);
+    }
+
+    /**
+     * A method with 2 return statements and two methods with 32 return statements, one of them with PER_RETURN
+     */
+    private static String generateFixture() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("package fixture;\n\n")
+                .append("import com.yuangancheng.logtool.annotation.EnableTraceLog;\n")
+                .append("import com.yuangancheng.logtool.annotation.TraceLog;\n")
+                .append("import com.yuangancheng.logtool.enums.InstrumentStrategyEnum;\n\n")
+                .append("@EnableTraceLog(reqIdName = \"reqId\", strategy = InstrumentStrategyEnum.SINGLE_EXIT)\n")
+                .append("public class SingleExitFixture {\n\n")
+                .append("    @TraceLog\n")
+                .append("    public int twoReturns(int value, String name) {\n")
+                .append("        if(value > name.length()) {\n")
+                .append("            return value;\n")
+                .append("        }\n")
+                .append("        return -value;\n")
+                .append("    }\n");
+        generateSwitchMethod(builder, "manyReturns", "@TraceLog");
+        generateSwitchMethod(builder, "perReturn", "@TraceLog(strategy = InstrumentStrategyEnum.PER_RETURN)");
+        return builder.append("}\n").toString();
+    }
+
+    private static void generateSwitchMethod(StringBuilder builder, String methodName, String annotation) {
+        builder.append("\n    ").append(annotation).append("\n")
+                .append("    public int ").append(methodName).append("(int value, String name) {\n")
+                .append("        switch(value + name.length()) {\n");
+        for(int i = 0; i < 31; i++) {
+            builder.append("            case ").append(i).append(":\n")
+                    .append("                return value * ").append(i).append(";\n");
+        }
+        builder.append("            default:\n")
+                .append("                return 0;\n")
+                .append("        }\n")
+                .append("    }\n");
+    }
+}
@@ -0,0 +1,121 @@
+package com.yuangancheng.logtool.ast;
+
+import com.yuangancheng.logtool.ProcessorTestSupport;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The instrumentation grows linearly with the number of methods, the depth of nested classes and the number of
+ * statements of a method. Instead of timing javac, which is too noisy for a unit test (see ProcessorBenchmark for the
+ * time), the nodes added by the processor to the analyzed trees are counted: for a linear growth f(n) = a + b * n,
+ * f(4n) - f(n) is exactly 3 times of f(2n) - f(n), while any code generated per pair of methods, classes or
+ * statements breaks the equality.
+ */
+public class TranslatorScalingTest {
+
+    private static final String CLASS_NAME = "fixture.ScalingFixture";
+
+    @Test
+    public void scalesLinearlyWithMethods() throws Exception {
+        assertLinear("methods", 10, TranslatorScalingTest::generateMethods);
+    }
+
+    @Test
+    public void scalesLinearlyWithNestingDepth() throws Exception {
+        assertLinear("nesting depth", 5, TranslatorScalingTest::generateNestedClasses);
+    }
+
+    @Test
+    public void scalesLinearlyWithStatements() throws Exception {
+        assertLinear("statements", 20, TranslatorScalingTest::generateReturns);
+    }
+
+    private static void assertLinear(String dimension, int size, IntFunction<String> generator) throws Exception {
+        long nodes = countGeneratedNodes(generator.apply(size));
+        long doubledNodes = countGeneratedNodes(generator.apply(size * 2));
+        long quadrupledNodes = countGeneratedNodes(generator.apply(size * 4));
+        assertTrue("No node is generated for " + dimension, nodes > 0 && doubledNodes > nodes);
+        assertEquals(
+                String.format("The generated nodes of %s are not linear: %d, %d, %d for %d, %d, %d", dimension, nodes, doubledNodes, quadrupledNodes, size, size * 2, size * 4),
+                3 * (doubledNodes - nodes),
+                quadrupledNodes - nodes
+        );
+    }
+
+    /**
+     * @return the number of the nodes added by the processor
+     */
+    private static long countGeneratedNodes(String source) throws Exception {
+        return ProcessorTestSupport.countTreeNodes(Collections.singletonMap(CLASS_NAME, source), true)
+                - ProcessorTestSupport.countTreeNodes(Collections.singletonMap(CLASS_NAME, source), false);
+    }
+
+    private static StringBuilder appendHeader(StringBuilder builder) {
+        return builder.append("package fixture;\n\n")
+                .append("import com.yuangancheng.logtool.annotation.EnableTraceLog;\n")
+                .append("import com.yuangancheng.logtool.annotation.TraceLog;\n\n")
+                .append("@EnableTraceLog(reqIdName = \"reqId\")\n")
+                .append("public class ScalingFixture {\n");
+    }
+
+    private static void appendMethod(StringBuilder builder, String methodName) {
+        builder.append("\n    @TraceLog\n")
+                .append("    public int ").append(methodName).append("(int value, String name) {\n")
+                .append("        if(value > name.length()) {\n")
+                .append("            return value;\n")
+                .append("        }\n")
+                .append("        return -value;\n")
+                .append("    }\n");
+    }
+
+    private static String generateMethods(int methodCount) {
+        StringBuilder builder = appendHeader(new StringBuilder());
+        for(int i = 0; i < methodCount; i++) {
+            appendMethod(builder, "method" + i);
+        }
+        return builder.append("}\n").toString();
+    }
+
+    /**
+     * Nested classes, each of them declares a method, the traced methods of the outmost class follow the nested ones.
+     * The names are short since the class file of the innermost class is named by all of them
+     */
+    private static String generateNestedClasses(int depth) {
+        StringBuilder builder = appendHeader(new StringBuilder());
+        for(int i = 0; i < depth; i++) {
+            builder.append("\n    public static class N").append(i).append(" {\n");
+            appendMethod(builder, "nested" + i);
+        }
+        for(int i = 0; i < depth; i++) {
+            builder.append("    }\n");
+        }
+        for(int i = 0; i < depth; i++) {
+            appendMethod(builder, "method" + i);
+        }
+        return builder.append("}\n").toString();
+    }
+
+    /**
+     * The returns are the cases of a single switch, so they are rewritten within one list of statements
+     */
+    private static String generateReturns(int returnCount) {
+        StringBuilder builder = appendHeader(new StringBuilder());
+        builder.append("\n    @TraceLog\n")
+                .append("    public int method(int value) {\n")
+                .append("        switch(value) {\n");
+        for(int i = 0; i < returnCount; i++) {
+            builder.append("            case ").append(i).append(":\n")
+                    .append("                return value * ").append(i).append(";\n");
+        }
+        builder.append("            default:\n")
+                .append("                return 0;\n")
+                .append("        }\n")
+                .append("    }\n");
+        return builder.append("}\n").toString();
+    }
+}
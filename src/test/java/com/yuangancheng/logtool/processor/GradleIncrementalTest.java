@@ -0,0 +1,210 @@
+package com.yuangancheng.logtool.processor;
+
+import com.yuangancheng.logtool.ProcessorTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The processor is declared isolating (META-INF/gradle/incremental.annotation.processors), so after one source of a
+ * Gradle project is edited, only that class is recompiled and instrumented again.
+ * Gradle is found by the system property "logtool.gradle", GRADLE_HOME or PATH, the test is skipped without it.
+ * The project is built with the JDK 8 toolchain of the current JVM and offline, so the Gradle distribution is
+ * expected to be available.
+ */
+public class GradleIncrementalTest {
+
+    private static final Pattern MODIFYING_CLASS_PATTERN = Pattern.compile("TraceLog: modifying class: (\\S+)");
+    private static final long BUILD_TIMEOUT_MINUTES = 5;
+
+    private Path projectDir;
+    private Path processorDir;
+
+    @Before
+    public void setUp() throws Exception {
+        projectDir = Files.createTempDirectory("logtool-gradle");
+        processorDir = projectDir.resolve("processor");
+        copyRecursively(ProcessorTestSupport.getProjectClasses(), processorDir);
+        copyRecursively(getMetaInfDir(), processorDir.resolve("META-INF"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ProcessorTestSupport.deleteRecursively(projectDir);
+    }
+
+    @Test
+    public void onlyTheEditedClassIsInstrumentedAgain() throws Exception {
+        String gradle = findGradle();
+        assumeTrue("Gradle is not found", gradle != null);
+        writeProject();
+        writeSource("demo.First", 1);
+        writeSource("demo.Second", 1);
+
+        List<String> fullBuild = getModifiedClasses(runBuild(gradle));
+        assertEquals(Arrays.asList("demo.First", "demo.Second"), sorted(fullBuild));
+
+        writeSource("demo.First", 2);
+        String incrementalOutput = runBuild(gradle);
+        assertFalse(incrementalOutput, incrementalOutput.contains("Full recompilation is required"));
+        assertEquals(incrementalOutput, Arrays.asList("demo.First"), getModifiedClasses(incrementalOutput));
+        assertTrue(Files.exists(projectDir.resolve("build/classes/java/main/demo/Second.class")));
+    }
+
+    private void writeProject() throws IOException {
+        write(projectDir.resolve("settings.gradle"), "rootProject.name = 'incremental'\n");
+        String processorPath = toGroovyString(processorDir);
+        String slf4jPath = toGroovyString(ProcessorTestSupport.getLocation(Logger.class));
+        write(projectDir.resolve("build.gradle"),
+                "plugins {\n" +
+                "    id 'java'\n" +
+                "}\n\n" +
+                "java {\n" +
+                "    toolchain {\n" +
+                "        languageVersion = JavaLanguageVersion.of(8)\n" +
+                "    }\n" +
+                "}\n\n" +
+                "dependencies {\n" +
+                "    compileOnly files('" + processorPath + "', '" + slf4jPath + "')\n" +
+                "    annotationProcessor files('" + processorPath + "')\n" +
+                "}\n");
+    }
+
+    private void writeSource(String className, int increment) throws IOException {
+        int index = className.lastIndexOf('.');
+        write(projectDir.resolve("src/main/java/" + className.replace('.', '/') + ".java"),
+                "package " + className.substring(0, index) + ";\n\n" +
+                "import com.yuangancheng.logtool.annotation.EnableTraceLog;\n" +
+                "import com.yuangancheng.logtool.annotation.TraceLog;\n\n" +
+                "@EnableTraceLog\n" +
+                "public class " + className.substring(index + 1) + " {\n\n" +
+                "    @TraceLog\n" +
+                "    public int run(int value) {\n" +
+                "        return value + " + increment + ";\n" +
+                "    }\n" +
+                "}\n");
+    }
+
+    private String runBuild(String gradle) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                gradle, "compileJava",
+                "--offline", "--info", "--no-daemon",
+                "-Porg.gradle.java.installations.paths=" + getJdkHome(),
+                "-Porg.gradle.java.installations.auto-download=false"
+        ));
+        Path log = projectDir.resolve("build.log");
+        Process process = new ProcessBuilder(command)
+                .directory(projectDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        if(!process.waitFor(BUILD_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new IllegalStateException("Gradle did not finish in " + BUILD_TIMEOUT_MINUTES + " minutes");
+        }
+        String output = new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+        if(process.exitValue() != 0) {
+            throw new IllegalStateException("Failed to build the Gradle project:\n" + output);
+        }
+        return output;
+    }
+
+    private static List<String> getModifiedClasses(String output) {
+        List<String> classes = new ArrayList<>();
+        Matcher matcher = MODIFYING_CLASS_PATTERN.matcher(output);
+        while(matcher.find()) {
+            classes.add(matcher.group(1));
+        }
+        return classes;
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> result = new ArrayList<>(list);
+        result.sort(null);
+        return result;
+    }
+
+    private static String findGradle() {
+        String executable = File.separatorChar == '\\' ? "gradle.bat" : "gradle";
+        String property = System.getProperty("logtool.gradle");
+        if(property != null && !property.isEmpty()) {
+            return property;
+        }
+        String gradleHome = System.getenv("GRADLE_HOME");
+        if(gradleHome != null && new File(gradleHome, "bin" + File.separator + executable).canExecute()) {
+            return new File(gradleHome, "bin" + File.separator + executable).getPath();
+        }
+        String path = System.getenv("PATH");
+        if(path != null) {
+            for(String dir : path.split(Pattern.quote(File.pathSeparator))) {
+                File file = new File(dir, executable);
+                if(file.canExecute()) {
+                    return file.getPath();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the JDK of the current JVM, whose java.home is the jre directory on JDK 8
+     */
+    private static String getJdkHome() {
+        File javaHome = new File(System.getProperty("java.home"));
+        if(javaHome.getName().equals("jre")) {
+            javaHome = javaHome.getParentFile();
+        }
+        return javaHome.getPath();
+    }
+
+    private static Path getMetaInfDir() {
+        Path metaInfDir = Paths.get("src", "main", "resources", "META-INF").toAbsolutePath();
+        if(!Files.isDirectory(metaInfDir)) {
+            throw new IllegalStateException("Please run in the directory of the project, " + metaInfDir + " is not found");
+        }
+        return metaInfDir;
+    }
+
+    private static String toGroovyString(Path path) {
+        return path.toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void copyRecursively(Path source, Path target) throws IOException {
+        try(Stream<Path> paths = Files.walk(source)) {
+            for(Path path : (Iterable<Path>)paths::iterator) {
+                Path destination = target.resolve(source.relativize(path).toString());
+                if(Files.isDirectory(path)) {
+                    Files.createDirectories(destination);
+                }else{
+                    Files.copy(path, destination, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
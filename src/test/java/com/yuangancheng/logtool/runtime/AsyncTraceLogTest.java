@@ -0,0 +1,85 @@
+package com.yuangancheng.logtool.runtime;
+
+import com.yuangancheng.logtool.enums.LogLevelEnum;
+import com.yuangancheng.logtool.enums.OverflowPolicyEnum;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertTrue;
+
+public class AsyncTraceLogTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    /* enough to fill the ring buffer of any reasonable logtool.async.bufferSize */
+    private static final int MAX_NESTED_EVENTS = 1 << 20;
+
+    /**
+     * An appender calling a traced method on the consumer thread, which is the only one freeing the slots, must not
+     * wait for a slot of the full ring buffer in BLOCK policy
+     */
+    @Test
+    public void consumerThreadNeverBlocksOnFullBuffer() throws Exception {
+        Logger disabledLogger = createLogger(false, message -> {
+        });
+        CountDownLatch nestedPublished = new CountDownLatch(1);
+        Logger nestingLogger = createLogger(true, message -> {
+            if(nestedPublished.getCount() == 0) {
+                return;
+            }
+            long dropped = AsyncTraceLog.getDroppedCount();
+            for(int i = 0; i < MAX_NESTED_EVENTS && AsyncTraceLog.getDroppedCount() == dropped; i++) {
+                AsyncTraceLog.publish(AsyncTraceLog.claim(disabledLogger, LogLevelEnum.INFO, OverflowPolicyEnum.BLOCK, false, "nested{in: {i: {}}}").putInt(i));
+            }
+            nestedPublished.countDown();
+        });
+
+        long dropped = AsyncTraceLog.getDroppedCount();
+        AsyncTraceLog.publish(AsyncTraceLog.claim(nestingLogger, LogLevelEnum.INFO, OverflowPolicyEnum.BLOCK, false, "appender{in: {}}"));
+        assertTrue("The consumer thread is blocked by its own event", nestedPublished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(AsyncTraceLog.getDroppedCount() > dropped);
+    }
+
+    @Test
+    public void failuresOfLoggerAreCounted() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        Logger failingLogger = createLogger(true, message -> {
+            written.countDown();
+            throw new IllegalStateException("broken appender");
+        });
+        long failed = AsyncTraceLog.getFailedCount();
+        AsyncTraceLog.publish(AsyncTraceLog.claim(failingLogger, LogLevelEnum.INFO, OverflowPolicyEnum.BLOCK, false, "fail{in: {}}"));
+        assertTrue(written.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while(AsyncTraceLog.getFailedCount() == failed && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(AsyncTraceLog.getFailedCount() > failed);
+    }
+
+    /**
+     * @param enabled whether all the levels are enabled
+     * @param appender called with the message of every log method
+     */
+    private static Logger createLogger(boolean enabled, Consumer<String> appender) {
+        return (Logger)Proxy.newProxyInstance(AsyncTraceLogTest.class.getClassLoader(), new Class<?>[]{Logger.class}, (proxy, method, args) -> {
+            if(method.getName().startsWith("is") && method.getReturnType() == boolean.class) {
+                return enabled;
+            }
+            if(method.getName().equals("getName")) {
+                return "test";
+            }
+            if(method.getDeclaringClass() == Object.class) {
+                return method.getName().equals("equals") ? proxy == args[0] : method.getName().equals("hashCode") ? System.identityHashCode(proxy) : "test";
+            }
+            if(args != null && args.length > 0 && args[0] instanceof String) {
+                appender.accept((String)args[0]);
+            }
+            return null;
+        });
+    }
+}